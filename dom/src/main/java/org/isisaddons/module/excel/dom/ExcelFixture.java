@@ -19,6 +19,7 @@
 
 package org.isisaddons.module.excel.dom;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Arrays;
@@ -28,6 +29,8 @@ import java.util.Map;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Resources;
 
 import org.datanucleus.enhancement.Persistable;
@@ -40,6 +43,7 @@ import org.apache.isis.applib.fixturescripts.FixtureScripts;
 import org.apache.isis.applib.services.bookmark.BookmarkService;
 import org.apache.isis.applib.services.registry.ServiceRegistry;
 import org.apache.isis.applib.services.repository.RepositoryService;
+import org.apache.isis.applib.services.xactn.TransactionService;
 import org.apache.isis.applib.value.Blob;
 
 import org.isisaddons.module.excel.dom.util.ExcelServiceImpl;
@@ -75,12 +79,14 @@ public class ExcelFixture extends FixtureScript {
 
     private ExcelFixture(final List<Class> classes) {
         for (Class cls : classes) {
-            final boolean viewModel = ExcelFixtureRowHandler.class.isAssignableFrom(cls);
+            final boolean viewModel = ExcelFixtureRowHandler.class.isAssignableFrom(cls) ||
+                                      ExcelFixtureBatchRowHandler.class.isAssignableFrom(cls);
             final boolean persistable = Persistable.class.isAssignableFrom(cls);
             if (!viewModel && !persistable) {
                 throw new IllegalArgumentException(String.format(
-                        "Class '%s' does not implement '%s', nor is it persistable",
-                        cls.getSimpleName(), ExcelFixtureRowHandler.class.getSimpleName()));
+                        "Class '%s' does not implement '%s' or '%s', nor is it persistable",
+                        cls.getSimpleName(), ExcelFixtureRowHandler.class.getSimpleName(),
+                        ExcelFixtureBatchRowHandler.class.getSimpleName()));
             }
         }
         this.classes = classes;
@@ -109,13 +115,54 @@ public class ExcelFixture extends FixtureScript {
     private Blob blob;
 
     /**
-     * Output: the objects created by this fixture, for a specific persistable/row handler class.
+     * Input, optional: if specified, then the rows of each sheet are handled (or persisted) in batches of this size,
+     * the transaction being flushed after each batch, so that the objects are persisted in bulk.  Otherwise all of the
+     * rows of a sheet are read before any are handled, as a single batch.
+     */
+    @Getter @Setter
+    private int batchSize;
+
+    /**
+     * Input, optional: if a {@link #getBatchSize() batch size} is specified, whether to also commit the transaction
+     * after each batch (rather than just flushing it), so that the objects of earlier batches need not be held onto
+     * by the persistence session.
+     */
+    @Getter @Setter
+    private boolean commitPerBatch;
+
+    /**
+     * Input, optional: if a {@link #getBatchSize() batch size} is specified, whether to discard the objects created
+     * for each batch once it has been handled, rather than keeping them as the {@link #getObjects() outputs} of this
+     * fixture (and, for persistable classes, as results of the {@link ExecutionContext}).  Together with
+     * {@link #isCommitPerBatch() commit per batch}, memory use then no longer depends on the number of rows.
+     *
+     * <p>
+     *     Any results added by an {@link ExcelFixtureRowHandler} or {@link ExcelFixtureBatchRowHandler} itself are
+     *     unaffected.
+     * </p>
+     */
+    @Getter @Setter
+    private boolean discardObjects;
+
+    /**
+     * Input, optional: if specified, then the rows read from each sheet are cached in this directory, so that any
+     * later run of the same spreadsheet (eg by another integration test, or after a restart) reads them from there
+     * rather than parsing the spreadsheet again.
+     *
+     * @see WorksheetSpec#withRowCache(File)
+     */
+    @Getter @Setter
+    private File cacheDirectory;
+
+    /**
+     * Output: the objects created by this fixture, for a specific persistable/row handler class (unless
+     * {@link #isDiscardObjects() discarded}).
      */
     @Getter
     private final Map<Class, List<Object>> objectsByClass = Maps.newHashMap();
 
     /**
-     * Output: all the objects created by this fixture.
+     * Output: all the objects created by this fixture (unless {@link #isDiscardObjects() discarded}).
      */
     @Getter
     private final List objects = Lists.newArrayList();
@@ -129,6 +176,10 @@ public class ExcelFixture extends FixtureScript {
     @Override
     protected void execute(final ExecutionContext ec) {
 
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("Batch size cannot be negative");
+        }
+
         final ExcelServiceImpl excelServiceImpl = new ExcelServiceImpl();
         serviceRegistry.injectServicesInto(excelServiceImpl);
 
@@ -137,18 +188,48 @@ public class ExcelFixture extends FixtureScript {
             blob = new Blob("unused", ExcelService.XSLX_MIME_TYPE, bytes);
         }
 
-        for (Class cls : classes) {
-            final List rowObjects = excelServiceImpl.fromExcel(blob, cls);
-            Object previousRow = null;
-            for (final Object rowObj : rowObjects) {
-                final List<Object> createdObjects = create(rowObj, ec, previousRow);
-                if (createdObjects != null) {
-                    addToMap(cls, createdObjects);
-                    addToCombined(createdObjects);
+        final boolean keepObjects = batchSize == 0 || !discardObjects;
+
+        // the workbook is parsed just once, each sheet then being read and its rows handled in the order of the classes
+        final List<WorksheetSpec> worksheetSpecs = Lists.newArrayList();
+        final List<RowConsumer<Object>> rowConsumers = Lists.newArrayList();
+        for (final Class cls : classes) {
+            final WorksheetSpec worksheetSpec = new WorksheetSpec(cls, null);
+            worksheetSpecs.add(cacheDirectory != null ? worksheetSpec.withRowCache(cacheDirectory) : worksheetSpec);
+            final boolean handlesBatches = ExcelFixtureBatchRowHandler.class.isAssignableFrom(cls);
+            rowConsumers.add(new RowConsumer<Object>() {
+                private Object previousRow;
+                @Override
+                public void consume(final List<Object> rowObjects) {
+                    if (handlesBatches) {
+                        final ExcelFixtureBatchRowHandler batchRowHandler = (ExcelFixtureBatchRowHandler) rowObjects.get(0);
+                        final List<Object> createdObjects =
+                                batchRowHandler.handleRows(ec, ExcelFixture.this, rowObjects, previousRow);
+                        if (createdObjects != null && keepObjects) {
+                            addToMap(cls, createdObjects);
+                            addToCombined(createdObjects);
+                        }
+                        previousRow = rowObjects.get(rowObjects.size() - 1);
+                    } else {
+                        for (final Object rowObj : rowObjects) {
+                            final List<Object> createdObjects = create(rowObj, ec, previousRow, keepObjects);
+                            if (createdObjects != null && keepObjects) {
+                                addToMap(cls, createdObjects);
+                                addToCombined(createdObjects);
+                            }
+                            previousRow = rowObj;
+                        }
+                    }
+                    if (batchSize > 0) {
+                        endBatch();
+                    }
                 }
-                previousRow = rowObj;
-            }
+            });
         }
+        // the digest is computed anyway (for the value semantics of this fixture), so is reused to key any cache
+        final String digest = cacheDirectory != null ? getDigest().toString() : null;
+        excelServiceImpl.fromExcel(
+                blob, digest, worksheetSpecs, rowConsumers, batchSize > 0 ? batchSize : Integer.MAX_VALUE);
     }
     //region > bytes
     private byte[] bytes;
@@ -179,17 +260,28 @@ public class ExcelFixture extends FixtureScript {
     private List<Object> create(
             final Object rowObj,
             final ExecutionContext ec,
-            final Object previousRow) {
+            final Object previousRow,
+            final boolean addResult) {
         if (rowObj instanceof ExcelFixtureRowHandler) {
             final ExcelFixtureRowHandler rowHandler = (ExcelFixtureRowHandler) rowObj;
             return rowHandler.handleRow(ec, this, previousRow);
         } else {
             repositoryService.persist(rowObj);
-            ec.addResult(this, rowObj);
+            if (addResult) {
+                ec.addResult(this, rowObj);
+            }
             return Collections.singletonList(rowObj);
         }
     }
 
+    private void endBatch() {
+        if (commitPerBatch) {
+            transactionService.nextTransaction();
+        } else {
+            transactionService.flushTransaction();
+        }
+    }
+
     private void addToMap(final Class cls, final List<Object> createdObjects) {
         List<Object> objectList = objectsByClass.get(cls);
         if (objectList == null) {
@@ -203,8 +295,27 @@ public class ExcelFixture extends FixtureScript {
         this.objects.addAll(createdObjects);
     }
 
+    //region > digest
+    private HashCode digest;
+
+    /**
+     * A SHA-256 digest of the spreadsheet, computed just once, so that fixtures for different spreadsheets can be told
+     * apart cheaply.
+     */
+    private HashCode getDigest() {
+        if (digest == null) {
+            digest = Hashing.sha256().hashBytes(getBytes());
+        }
+        return digest;
+    }
+    //endregion
+
     //region > hashCode, equals
 
+    /**
+     * Spreadsheets with different (SHA-256) digests are different, so comparing them costs the same however large they
+     * are; only if the digests match are the spreadsheets themselves compared.
+     */
     @Override
     public boolean equals(final Object o) {
         if (this == o)
@@ -214,13 +325,13 @@ public class ExcelFixture extends FixtureScript {
 
         final ExcelFixture that = (ExcelFixture) o;
 
-        return Arrays.equals(getBytes(), that.getBytes());
+        return getDigest().equals(that.getDigest()) && Arrays.equals(getBytes(), that.getBytes());
 
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(getBytes());
+        return getDigest().asInt();
     }
 
     //endregion
@@ -231,5 +342,7 @@ public class ExcelFixture extends FixtureScript {
     private BookmarkService bookmarkService;
     @javax.inject.Inject
     private ServiceRegistry serviceRegistry;
+    @javax.inject.Inject
+    private TransactionService transactionService;
 
 }
@@ -0,0 +1,54 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom;
+
+import java.util.List;
+
+import org.apache.isis.applib.fixturescripts.FixtureScript;
+
+/**
+ * As {@link ExcelFixtureRowHandler}, but handling the rows of a sheet a batch at a time, eg so that any existing
+ * objects for all of the rows of the batch can be looked up using a single query.
+ *
+ * <p>
+ *     If a class implements both interfaces, then the {@link ExcelFixture} uses this one.
+ * </p>
+ */
+public interface ExcelFixtureBatchRowHandler {
+
+    /**
+     * Called on the first of the rows of each batch.
+     *
+     * <p>
+     *     As for {@link ExcelFixtureRowHandler}, an instance of the implementing class is created for every row of
+     *     the sheet; the instance on which this method is called is simply the first of those in <tt>rows</tt>, and
+     *     is expected to handle all of them.  It should therefore keep no state of its own between batches, other
+     *     than through <tt>previousRow</tt>.
+     * </p>
+     *
+     * @param rows - the rows of the batch (this object being the first), in order.
+     * @param previousRow - the last row of the previous batch, or <tt>null</tt> if this is the first batch.
+     * @return the objects created (or updated) for the rows of the batch.
+     */
+    List<Object> handleRows(
+            final FixtureScript.ExecutionContext executionContext,
+            final ExcelFixture excelFixture,
+            final List<?> rows,
+            final Object previousRow);
+}
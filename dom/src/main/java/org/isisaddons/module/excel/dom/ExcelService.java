@@ -16,6 +16,7 @@
  */
 package org.isisaddons.module.excel.dom;
 
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -41,6 +42,10 @@ public class ExcelService {
 
         private static final long serialVersionUID = 1L;
 
+        public Exception(final String msg) {
+            super(msg);
+        }
+
         public Exception(final String msg, final Throwable ex) {
             super(msg, ex);
         }
@@ -108,6 +113,24 @@ public class ExcelService {
         return excelServiceImpl.toExcel(worksheetContents, fileName);
     }
 
+    /**
+     * As {@link #toExcel(WorksheetContent, String)}, but writing the spreadsheet directly to the provided stream
+     * (eg an HTTP response, or a file), avoiding any intermediate copies.  The stream is flushed but not closed.
+     */
+    @Programmatic
+    public void toExcel(
+            final WorksheetContent worksheetContent,
+            final OutputStream outputStream) throws ExcelService.Exception {
+        excelServiceImpl.toExcel(worksheetContent, outputStream);
+    }
+
+    @Programmatic
+    public void toExcel(
+            final List<WorksheetContent> worksheetContents,
+            final OutputStream outputStream) throws ExcelService.Exception {
+        excelServiceImpl.toExcel(worksheetContents, outputStream);
+    }
+
     /**
      * Returns a list of objects for each line in the spreadsheet, of the specified type.
      *
@@ -147,6 +170,64 @@ public class ExcelService {
         return excelServiceImpl.fromExcel(excelBlob, worksheetSpecs);
     }
 
+    /**
+     * As {@link #fromExcel(Blob, WorksheetSpec)}, but handing each domain object to the {@link RowConsumer} as soon as
+     * it is imported, returning only a summary.
+     */
+    @Programmatic
+    public <T> ImportSummary fromExcel(
+            final Blob excelBlob,
+            final WorksheetSpec worksheetSpec,
+            final RowConsumer<T> rowConsumer) throws ExcelService.Exception {
+        return fromExcel(excelBlob, worksheetSpec, rowConsumer, 1);
+    }
+
+    /**
+     * As {@link #fromExcel(Blob, WorksheetSpec, RowConsumer)}, but handing the domain objects to the
+     * {@link RowConsumer} in batches (of up to the specified size).
+     */
+    @Programmatic
+    public <T> ImportSummary fromExcel(
+            final Blob excelBlob,
+            final WorksheetSpec worksheetSpec,
+            final RowConsumer<T> rowConsumer,
+            final int batchSize) throws ExcelService.Exception {
+        return excelServiceImpl.fromExcel(excelBlob, worksheetSpec, rowConsumer, batchSize);
+    }
+
+    /**
+     * As {@link #fromExcel(Blob, WorksheetSpec, RowConsumer, int)}, but reading multiple sheets of the workbook (which
+     * is parsed only once), handing the domain objects of each sheet to the corresponding {@link RowConsumer}.
+     *
+     * <p>
+     *     The sheets are read in the order of the specs, each being read only once all of the domain objects of the
+     *     previous sheet have been consumed.
+     * </p>
+     */
+    @Programmatic
+    public List<ImportSummary> fromExcel(
+            final Blob excelBlob,
+            final List<WorksheetSpec> worksheetSpecs,
+            final List<? extends RowConsumer<?>> rowConsumers,
+            final int batchSize) throws ExcelService.Exception {
+        return excelServiceImpl.fromExcel(excelBlob, worksheetSpecs, rowConsumers, batchSize);
+    }
+
+    /**
+     * As {@link #fromExcel(Blob, WorksheetSpec)}, but reading and converting each row only as the returned iterator
+     * is advanced, so that a caller that stops early need not read the remainder of the sheet.
+     *
+     * <p>
+     *     The iterator should be closed (eg using try-with-resources) once done with.
+     * </p>
+     */
+    @Programmatic
+    public <T> ImportIterator<T> fromExcelLazily(
+            final Blob excelBlob,
+            final WorksheetSpec worksheetSpec) throws ExcelService.Exception {
+        return excelServiceImpl.fromExcelLazily(excelBlob, worksheetSpec);
+    }
+
     @javax.inject.Inject
     private DomainObjectContainer container;
     @javax.inject.Inject
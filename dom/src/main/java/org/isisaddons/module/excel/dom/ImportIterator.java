@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * The domain objects imported from a sheet, each row being read and converted only as the iterator is advanced.
+ *
+ * <p>
+ *     Should be closed (eg using try-with-resources) once done with, in order to release the underlying workbook
+ *     and any temporary files; this also happens automatically once the iterator has been exhausted.  The
+ *     iterator does not support {@link #remove()}.
+ * </p>
+ *
+ * @see ExcelService#fromExcelLazily(org.apache.isis.applib.value.Blob, WorksheetSpec)
+ */
+public interface ImportIterator<T> extends Iterator<T>, Closeable {
+
+    @Override
+    void close() throws ExcelService.Exception;
+
+}
@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom;
+
+import org.apache.isis.applib.util.ObjectContracts;
+
+/**
+ * Summarises the import of a sheet whose domain objects were handed to a {@link RowConsumer}.
+ */
+public class ImportSummary {
+
+    private final String sheetName;
+    private final int numRows;
+    private final int numImported;
+    private final int numBatches;
+
+    public ImportSummary(
+            final String sheetName,
+            final int numRows,
+            final int numImported,
+            final int numBatches) {
+        this.sheetName = sheetName;
+        this.numRows = numRows;
+        this.numImported = numImported;
+        this.numBatches = numBatches;
+    }
+
+    /**
+     * The name of the sheet read.
+     */
+    public String getSheetName() {
+        return sheetName;
+    }
+
+    /**
+     * The number of rows read, excluding the header row but including any blank rows.
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * The number of domain objects handed to the {@link RowConsumer}; the blank rows are skipped.
+     */
+    public int getNumImported() {
+        return numImported;
+    }
+
+    /**
+     * The number of times the {@link RowConsumer} was called.
+     */
+    public int getNumBatches() {
+        return numBatches;
+    }
+
+    @Override
+    public String toString() {
+        return ObjectContracts.toString(this, "sheetName,numRows,numImported,numBatches");
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom;
+
+import java.util.List;
+
+/**
+ * Receives the domain objects imported from a sheet while the sheet is still being read, as an alternative to
+ * {@link ExcelService#fromExcel(org.apache.isis.applib.value.Blob, WorksheetSpec) returning} them all as a list.
+ *
+ * @see ExcelService#fromExcel(org.apache.isis.applib.value.Blob, WorksheetSpec, RowConsumer, int)
+ */
+public interface RowConsumer<T> {
+
+    /**
+     * @param batch - the domain objects imported from the next rows of the sheet, in order; never empty.  The
+     *              importer does not hold onto the list, so once consumed the objects can be discarded.
+     */
+    void consume(List<T> batch);
+
+}
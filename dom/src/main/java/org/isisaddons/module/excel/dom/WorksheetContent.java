@@ -16,25 +16,134 @@
  */
 package org.isisaddons.module.excel.dom;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+
 public class WorksheetContent {
 
-    private final List<?> domainObjects;
+    /**
+     * Supplies the domain objects to be exported one page at a time, so that they need never all be held in memory.
+     */
+    public interface PageSupplier<T> {
+        /**
+         * Returns at most <tt>count</tt> domain objects, starting at the (zero-based) index <tt>start</tt>.  A page
+         * with fewer than <tt>count</tt> objects (or <tt>null</tt>) is taken to be the last.
+         */
+        List<T> getPage(int start, int count);
+    }
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private final Iterable<?> domainObjects;
     private final WorksheetSpec spec;
 
     public <T> WorksheetContent(
             final List<T> domainObjects,
             final WorksheetSpec spec) {
+        this((Iterable<T>) domainObjects, spec);
+    }
+
+    /**
+     * The domain objects are only iterated over when the sheet is exported, so can be provided lazily (eg backed by
+     * a cursor).  For exports whose size is unbounded, combine with {@link WorksheetSpec#withStreaming() streaming}.
+     */
+    public <T> WorksheetContent(
+            final Iterable<T> domainObjects,
+            final WorksheetSpec spec) {
         this.domainObjects = domainObjects;
         this.spec = spec;
     }
 
+    /**
+     * As {@link #WorksheetContent(PageSupplier, int, WorksheetSpec)}, using the {@link #DEFAULT_PAGE_SIZE default}
+     * page size.
+     */
+    public <T> WorksheetContent(
+            final PageSupplier<T> pageSupplier,
+            final WorksheetSpec spec) {
+        this(pageSupplier, DEFAULT_PAGE_SIZE, spec);
+    }
+
+    /**
+     * The domain objects are obtained from the supplier a page at a time as the sheet is exported; each page is
+     * released once it has been written, so peak memory depends upon the page size rather than the number of
+     * domain objects.
+     */
+    public <T> WorksheetContent(
+            final PageSupplier<T> pageSupplier,
+            final int pageSize,
+            final WorksheetSpec spec) {
+        this(new PagedIterable<>(pageSupplier, pageSize), spec);
+    }
+
+    /**
+     * The domain objects, as a list.  If they were provided lazily then they will all be read into memory; use
+     * {@link #getDomainObjectsIterable()} to avoid this.
+     */
     public List<?> getDomainObjects() {
+        return domainObjects instanceof List
+                ? (List<?>) domainObjects
+                : Lists.newArrayList(domainObjects);
+    }
+
+    public Iterable<?> getDomainObjectsIterable() {
         return domainObjects;
     }
 
+    /**
+     * Whether the domain objects are obtained from a {@link PageSupplier}, and so are only queried as the sheet is
+     * exported (rather than having been obtained by the caller beforehand).
+     */
+    public boolean isPaged() {
+        return domainObjects instanceof PagedIterable;
+    }
+
     public WorksheetSpec getSpec() {
         return spec;
     }
+
+    private static class PagedIterable<T> implements Iterable<T> {
+
+        private final PageSupplier<T> pageSupplier;
+        private final int pageSize;
+
+        PagedIterable(final PageSupplier<T> pageSupplier, final int pageSize) {
+            if(pageSize <= 0) {
+                throw new IllegalArgumentException("Page size must be positive");
+            }
+            this.pageSupplier = pageSupplier;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return new AbstractIterator<T>() {
+
+                private int start;
+                private boolean lastPage;
+                private Iterator<T> page = Collections.emptyIterator();
+
+                @Override
+                protected T computeNext() {
+                    while(!page.hasNext()) {
+                        if(lastPage) {
+                            return endOfData();
+                        }
+                        final List<T> next = pageSupplier.getPage(start, pageSize);
+                        if(next == null) {
+                            return endOfData();
+                        }
+                        start += next.size();
+                        lastPage = next.size() < pageSize;
+                        page = next.iterator();
+                    }
+                    return page.next();
+                }
+            };
+        }
+    }
 }
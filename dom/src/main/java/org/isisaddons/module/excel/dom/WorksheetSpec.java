@@ -16,11 +16,27 @@
  */
 package org.isisaddons.module.excel.dom;
 
+import java.io.File;
+
 public class WorksheetSpec {
 
+    /**
+     * The number of rows kept in memory by default when {@link #withStreaming() streaming}; older rows are flushed
+     * to a temporary file.
+     */
+    public static final int DEFAULT_ROW_ACCESS_WINDOW_SIZE = 100;
+
     private final Class<?> cls;
     private final String sheetName;
 
+    private int rowAccessWindowSize;
+    private boolean rollover;
+    private boolean parallel;
+    private boolean bookmarkColumns;
+    private boolean trustedImport;
+    private boolean directPopulation;
+    private File rowCacheDirectory;
+
     public <T> WorksheetSpec(final Class<T> cls, final String sheetName) {
         this.cls = cls;
         this.sheetName = sheetName != null? sheetName : cls.getSimpleName();
@@ -33,4 +49,197 @@ public class WorksheetSpec {
     public String getSheetName() {
         return sheetName;
     }
+
+    /**
+     * As {@link #withStreaming(int)}, using the {@link #DEFAULT_ROW_ACCESS_WINDOW_SIZE default} window size.
+     */
+    public WorksheetSpec withStreaming() {
+        return withStreaming(DEFAULT_ROW_ACCESS_WINDOW_SIZE);
+    }
+
+    /**
+     * Returns a copy of this spec that, when exported, only keeps a bounded window of rows in memory, flushing older
+     * rows to disk.  Heap usage therefore remains flat however many domain objects are exported.
+     *
+     * <p>
+     *     If any of the sheets of a workbook is streamed then the whole workbook is streamed, using the largest of
+     *     the requested window sizes.
+     * </p>
+     *
+     * <p>
+     *     Similarly, when imported (from an .xlsx file), the sheet is read by streaming its XML a row at a time
+     *     rather than first loading the whole workbook into memory; the window size is not relevant.  Again, if any
+     *     of the sheets being imported is streamed then the whole workbook is.
+     * </p>
+     *
+     * <p>
+     *     However, the comments of a sheet can only be read all at once; and any references exported without
+     *     {@link #withBookmarkColumns() bookmark columns} hold their bookmarks as comments.  A sheet to be streamed on
+     *     import should therefore be exported with bookmark columns, otherwise memory use will again depend on the
+     *     size of the file (albeit only its comments).
+     * </p>
+     */
+    public WorksheetSpec withStreaming(final int rowAccessWindowSize) {
+        if(rowAccessWindowSize <= 0) {
+            throw new IllegalArgumentException("Row access window size must be positive");
+        }
+        final WorksheetSpec copy = copy();
+        copy.rowAccessWindowSize = rowAccessWindowSize;
+        return copy;
+    }
+
+    public boolean isStreaming() {
+        return rowAccessWindowSize > 0;
+    }
+
+    public int getRowAccessWindowSize() {
+        return rowAccessWindowSize;
+    }
+
+    /**
+     * Returns a copy of this spec that, when exported, continues onto further sheets named "Sheet (2)",
+     * "Sheet (3)" and so on (each with the header row repeated) once a sheet reaches the maximum number of rows
+     * supported by Excel.  Without this an export of too many domain objects fails.
+     *
+     * <p>
+     *     The base sheet name is truncated if necessary so that the suffixed names do not exceed 30 characters.
+     * </p>
+     */
+    public WorksheetSpec withRollover() {
+        final WorksheetSpec copy = copy();
+        copy.rollover = true;
+        return copy;
+    }
+
+    public boolean isRollover() {
+        return rollover;
+    }
+
+    /**
+     * Returns a copy of this spec whose sheet, when exported, is generated concurrently with any other sheets of
+     * the workbook that are also flagged as parallel.  The sheets still appear in the workbook in the order provided.
+     *
+     * <p>
+     *     Each sheet is generated in its own Isis session (for the current user), so only sheets whose content is
+     *     provided by a {@link WorksheetContent.PageSupplier} are generated in parallel, each page being queried
+     *     within the session of the thread generating that sheet (the supplier should therefore query afresh rather
+     *     than return objects already obtained by the caller).  Sheets whose content is provided as a list or
+     *     iterable are generated sequentially, as are all sheets if the export is not made within an Isis session.
+     *     Parallel generation implies {@link #withStreaming() streaming}.
+     * </p>
+     */
+    public WorksheetSpec withParallel() {
+        final WorksheetSpec copy = isStreaming() ? copy() : withStreaming();
+        copy.parallel = true;
+        return copy;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Returns a copy of this spec that, when exported, writes the bookmark of each referenced object into a hidden
+     * column (one per reference property, following the visible columns) rather than as a comment on the cell.
+     * This is considerably faster and results in smaller files.
+     *
+     * <p>
+     *     On import, the bookmarks are read back from such hidden columns whenever they are present, whatever this
+     *     setting.
+     * </p>
+     */
+    public WorksheetSpec withBookmarkColumns() {
+        final WorksheetSpec copy = copy();
+        copy.bookmarkColumns = true;
+        return copy;
+    }
+
+    public boolean isBookmarkColumns() {
+        return bookmarkColumns;
+    }
+
+    /**
+     * Returns a copy of this spec that, when imported, trusts the spreadsheet: each property that has a plain setter
+     * (ie no <tt>modifyXxx()</tt> method or domain event) is set by calling that setter directly, rather than through
+     * the Isis metamodel, so no {@link org.apache.isis.core.metamodel.adapter.ObjectAdapter}s are created for the
+     * domain object or its values.  Any other properties are set through the metamodel, but as framework- rather than
+     * user-initiated.
+     *
+     * <p>
+     *     Only appropriate for spreadsheets from a trusted source, eg fixture data, or files previously exported.
+     * </p>
+     */
+    public WorksheetSpec withTrustedImport() {
+        final WorksheetSpec copy = copy();
+        copy.trustedImport = true;
+        return copy;
+    }
+
+    public boolean isTrustedImport() {
+        return trustedImport;
+    }
+
+    /**
+     * Returns a copy of this spec that, when imported into a plain class (neither a view model nor an entity, eg an
+     * {@link ExcelFixtureRowHandler}), instantiates each object itself and populates it through the setters of its
+     * properties, rather than asking the framework for a transient instance and populating that through the Isis
+     * metamodel; so no {@link org.apache.isis.core.metamodel.adapter.ObjectAdapter}s are created for the objects or
+     * their values.
+     *
+     * <p>
+     *     Services are still injected into each object, but nothing else that the framework would do on instantiating
+     *     it is; so this only applies if the class has no <tt>created()</tt> callback, no property has a default, and
+     *     every imported property is set by the metamodel just by calling its setter (ie has no <tt>modifyXxx()</tt>
+     *     method or domain event).  Otherwise the objects are imported as normal.
+     * </p>
+     */
+    public WorksheetSpec withDirectPopulation() {
+        final WorksheetSpec copy = copy();
+        copy.directPopulation = true;
+        return copy;
+    }
+
+    public boolean isDirectPopulation() {
+        return directPopulation;
+    }
+
+    /**
+     * Returns a copy of this spec that, when imported, caches the rows of the sheet (as read from the workbook) in
+     * the specified directory, so that a later import of the same workbook reads the rows from there, without
+     * parsing the workbook at all.
+     *
+     * <p>
+     *     The cached rows are keyed by a digest of the workbook, and by the class along with its properties; so they
+     *     are no longer used if either changes.  The cache is never evicted, so is intended for spreadsheets (such as
+     *     fixtures) that are imported over and over, eg by integration tests.  Any sheets imported together from the
+     *     same workbook must all be cached in the same directory.
+     * </p>
+     */
+    public WorksheetSpec withRowCache(final File directory) {
+        if(directory == null) {
+            throw new IllegalArgumentException("Cache directory is required");
+        }
+        final WorksheetSpec copy = copy();
+        copy.rowCacheDirectory = directory;
+        return copy;
+    }
+
+    /**
+     * The directory in which to {@link #withRowCache(File) cache} the rows imported, or <tt>null</tt> if not cached.
+     */
+    public File getRowCacheDirectory() {
+        return rowCacheDirectory;
+    }
+
+    private WorksheetSpec copy() {
+        final WorksheetSpec copy = new WorksheetSpec(cls, sheetName);
+        copy.rowAccessWindowSize = rowAccessWindowSize;
+        copy.rollover = rollover;
+        copy.parallel = parallel;
+        copy.bookmarkColumns = bookmarkColumns;
+        copy.trustedImport = trustedImport;
+        copy.directPopulation = directPopulation;
+        copy.rowCacheDirectory = rowCacheDirectory;
+        return copy;
+    }
 }
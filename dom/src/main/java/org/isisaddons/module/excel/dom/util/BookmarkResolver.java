@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.apache.isis.applib.services.bookmark.Bookmark;
+import org.apache.isis.applib.services.bookmark.BookmarkService;
+
+/**
+ * A cross-row cache of the objects referenced by the rows being imported, shared by all the rows (and sheets) of a
+ * single import so that each distinct bookmark is looked up only once, rather than once per row.
+ *
+ * <p>
+ *     {@link BookmarkService} has no bulk lookup, so each distinct bookmark is still looked up individually, as it
+ *     is first encountered.
+ * </p>
+ */
+final class BookmarkResolver {
+
+    private final BookmarkService bookmarkService;
+    private final Cache<String, Object> objectByBookmark;
+
+    BookmarkResolver(final BookmarkService bookmarkService) {
+        this(bookmarkService, ReferenceCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    BookmarkResolver(final BookmarkService bookmarkService, final int maximumSize) {
+        this.bookmarkService = bookmarkService;
+        this.objectByBookmark = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * The object referenced by the bookmark, looked up if not already resolved.
+     *
+     * <p>
+     *     Bookmarks that resolve to nothing are not cached, so are looked up again if encountered again (the object
+     *     might since have been created).
+     * </p>
+     */
+    Object lookup(final String bookmarkStr, final Class<?> requiredType) {
+        final Object resolved = objectByBookmark.getIfPresent(bookmarkStr);
+        if(resolved != null) {
+            return resolved;
+        }
+        final Object object = bookmarkService.lookup(new Bookmark(bookmarkStr), requiredType);
+        if(object != null) {
+            objectByBookmark.put(bookmarkStr, object);
+        }
+        return object;
+    }
+
+    long getHitCount() {
+        return objectByBookmark.stats().hitCount();
+    }
+
+    long getMissCount() {
+        return objectByBookmark.stats().missCount();
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHitCount() + ", misses=" + getMissCount();
+    }
+}
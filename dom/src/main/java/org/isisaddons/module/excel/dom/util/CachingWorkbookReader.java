@@ -0,0 +1,506 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+
+/**
+ * Caches the rows read from the sheets of a workbook on disk, so that a later import of the same workbook can read
+ * them back without parsing the workbook at all.
+ *
+ * <p>
+ *     Each sheet is cached in a file keyed by the (SHA-256) digest of the workbook, along with the sheet name, the
+ *     class being imported and the fingerprint of its {@link ColumnPlan}; so the entry is no longer used if the
+ *     properties of the class change.  The raw value of each cell is held (in a compact binary form), along with the
+ *     text of any comment that was asked for as the sheet was read.  The sheet names and date system of the workbook
+ *     are cached in a further file.
+ * </p>
+ *
+ * <p>
+ *     A sheet is written to the cache as it is first read, and only added to the cache (atomically, by renaming)
+ *     once it has been read in its entirety.  The underlying workbook is only opened if needed, ie on a cache miss,
+ *     or should a cached sheet turn out to be corrupt (in which case the rest of the sheet is read from the workbook).
+ *     Entries are never evicted.
+ * </p>
+ */
+final class CachingWorkbookReader implements WorkbookReader {
+
+    private static final int VERSION = 1;
+
+    private static final int END_OF_ROWS = -1;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte BOOLEAN = 3;
+
+    /**
+     * Opens the workbook, should any of its sheets not be cached.
+     */
+    interface Opener {
+        WorkbookReader open() throws IOException, InvalidFormatException;
+    }
+
+    private final File directory;
+    private final String digest;
+    private final Opener opener;
+
+    private WorkbookReader workbookReader;
+    private List<String> sheetNames;
+    private boolean date1904;
+
+    /**
+     * @param digest - the (hex-encoded, SHA-256) digest of the workbook, by which its entries are keyed.
+     */
+    CachingWorkbookReader(
+            final File directory,
+            final String digest,
+            final Opener opener) throws IOException, InvalidFormatException {
+        this.directory = directory;
+        this.digest = digest;
+        this.opener = opener;
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create cache directory " + directory);
+        }
+        try {
+            readWorkbook();
+        } catch (final IOException | InvalidFormatException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    private WorkbookReader getWorkbookReader() throws IOException, InvalidFormatException {
+        if(workbookReader == null) {
+            workbookReader = opener.open();
+        }
+        return workbookReader;
+    }
+
+    private void readWorkbook() throws IOException, InvalidFormatException {
+        final File file = new File(directory, digest + ".workbook");
+        if(file.isFile()) {
+            try (DataInputStream in = newInput(file)) {
+                this.date1904 = in.readBoolean();
+                final int numSheets = in.readInt();
+                this.sheetNames = Lists.newArrayListWithCapacity(numSheets);
+                for (int i = 0; i < numSheets; i++) {
+                    sheetNames.add(readString(in));
+                }
+                return;
+            } catch (final IOException ex) {
+                // unreadable; read from the workbook instead (and cache again)
+            }
+        }
+        final WorkbookReader workbookReader = getWorkbookReader();
+        this.date1904 = workbookReader.isDate1904();
+        this.sheetNames = workbookReader.getSheetNames();
+        final File tempFile = File.createTempFile(digest, ".tmp", directory);
+        try (DataOutputStream out = newOutput(tempFile)) {
+            out.writeBoolean(date1904);
+            out.writeInt(sheetNames.size());
+            for (final String sheetName : sheetNames) {
+                writeString(out, sheetName);
+            }
+        } catch (final IOException ex) {
+            tempFile.delete();
+            return;
+        }
+        commit(tempFile, file);
+    }
+
+    @Override
+    public List<String> getSheetNames() {
+        return sheetNames;
+    }
+
+    @Override
+    public boolean isDate1904() {
+        return date1904;
+    }
+
+    /**
+     * Reads the sheet directly from the workbook, without caching it.
+     */
+    @Override
+    public SheetReader openSheet(final String sheetName) throws IOException, InvalidFormatException {
+        return getWorkbookReader().openSheet(sheetName);
+    }
+
+    /**
+     * Reads the sheet from the cache, if present, otherwise from the workbook, caching it as it is read.
+     */
+    SheetReader openSheet(
+            final String sheetName,
+            final Class<?> cls,
+            final String columnPlanFingerprint) throws IOException, InvalidFormatException {
+        final String key = Hashing.sha256()
+                .hashString(sheetName + "\n" + cls.getName() + "\n" + columnPlanFingerprint, Charsets.UTF_8)
+                .toString();
+        final File file = new File(directory, digest + "-" + key.substring(0, 16) + ".rows");
+        if(file.isFile()) {
+            try {
+                return new CachedSheetReader(newInput(file), sheetName, file);
+            } catch (final IOException ex) {
+                // unreadable; read from the workbook instead (and cache again)
+            }
+        }
+        return new RecordingSheetReader(getWorkbookReader().openSheet(sheetName), file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(workbookReader != null) {
+            workbookReader.close();
+        }
+    }
+
+    private static DataInputStream newInput(final File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if(in.readInt() != VERSION) {
+                throw new IOException("Unsupported version of cache file " + file);
+            }
+        } catch (final IOException ex) {
+            in.close();
+            throw ex;
+        }
+        return in;
+    }
+
+    private static DataOutputStream newOutput(final File file) throws IOException {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(VERSION);
+        return out;
+    }
+
+    private static void commit(final File tempFile, final File file) {
+        if(!tempFile.renameTo(file)) {
+            // eg cached concurrently
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * As per {@link DataOutputStream#writeUTF(String)}, but not limited to 64k (of UTF-8).
+     */
+    private static void writeString(final DataOutputStream out, final String str) throws IOException {
+        final byte[] bytes = str.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if(length < 0) {
+            throw new IOException("Corrupt cache file");
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * Passes on the rows of the sheet, writing each to a temporary file that is added to the cache once the last
+     * row has been read.  Should anything go wrong in writing the file, the rows are still passed on.
+     *
+     * <p>
+     *     Each row is only written once the next row is asked for, along with those of its comments that were asked
+     *     for in the meantime; so comments (which might otherwise all need to be read up-front, see
+     *     {@link StreamingWorkbookReader}) are only cached if actually needed.  Which comments are needed depends only
+     *     on the workbook and the {@link ColumnPlan}, both part of the key.
+     * </p>
+     */
+    private static class RecordingSheetReader extends SheetReader {
+
+        private final SheetReader sheetReader;
+        private final File file;
+        private final File tempFile;
+        private DataOutputStream out;
+        private RecordedRow pending;
+
+        RecordingSheetReader(final SheetReader sheetReader, final File file) throws IOException {
+            this.sheetReader = sheetReader;
+            this.file = file;
+            this.tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            this.out = newOutput(tempFile);
+        }
+
+        @Override
+        protected SheetRow computeNext() {
+            writePending();
+            if(!sheetReader.hasNext()) {
+                if(out != null) {
+                    try {
+                        out.writeInt(END_OF_ROWS);
+                        out.close();
+                        out = null;
+                        commit(tempFile, file);
+                    } catch (final IOException ex) {
+                        abandon();
+                    }
+                }
+                return endOfData();
+            }
+            final SheetRow row = sheetReader.next();
+            if(out == null) {
+                return row;
+            }
+            pending = new RecordedRow(row);
+            return pending;
+        }
+
+        private void writePending() {
+            if(pending == null) {
+                return;
+            }
+            if(out != null) {
+                try {
+                    write(pending);
+                } catch (final IOException ex) {
+                    abandon();
+                }
+            }
+            pending = null;
+        }
+
+        private void write(final RecordedRow row) throws IOException {
+            out.writeInt(row.getRowNum());
+            out.writeInt(row.getNumColumns());
+            for (int columnIndex = 0; columnIndex < row.getNumColumns(); columnIndex++) {
+                final Object value = row.getValue(columnIndex);
+                if(value instanceof String) {
+                    out.writeByte(STRING);
+                    writeString(out, (String) value);
+                } else if(value instanceof Double) {
+                    out.writeByte(DOUBLE);
+                    out.writeDouble((Double) value);
+                } else if(value instanceof Boolean) {
+                    out.writeByte(BOOLEAN);
+                    out.writeBoolean((Boolean) value);
+                } else {
+                    out.writeByte(NULL);
+                }
+            }
+            final Map<Integer, String> commentByColumn = row.getCommentByColumn();
+            out.writeInt(commentByColumn.size());
+            for (final Map.Entry<Integer, String> entry : commentByColumn.entrySet()) {
+                out.writeInt(entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        }
+
+        private void abandon() {
+            try {
+                out.close();
+            } catch (final IOException ex) {
+                // ignore
+            }
+            out = null;
+            tempFile.delete();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(out != null) {
+                // not read in its entirety
+                abandon();
+            }
+            sheetReader.close();
+        }
+    }
+
+    /**
+     * Remembers those comments of the underlying row that are asked for.
+     */
+    private static class RecordedRow extends SheetRow {
+
+        private final SheetRow row;
+        private final Map<Integer, String> commentByColumn = Maps.newTreeMap();
+
+        RecordedRow(final SheetRow row) {
+            super(row.getRowNum(), valuesOf(row));
+            this.row = row;
+        }
+
+        private static Object[] valuesOf(final SheetRow row) {
+            final Object[] values = new Object[row.getNumColumns()];
+            for (int columnIndex = 0; columnIndex < values.length; columnIndex++) {
+                values[columnIndex] = row.getValue(columnIndex);
+            }
+            return values;
+        }
+
+        @Override
+        String getComment(final int columnIndex) {
+            final String comment = row.getComment(columnIndex);
+            if(comment != null) {
+                commentByColumn.put(columnIndex, comment);
+            }
+            return comment;
+        }
+
+        Map<Integer, String> getCommentByColumn() {
+            return commentByColumn;
+        }
+    }
+
+    /**
+     * Reads the rows of the sheet from the cache.  Should the cached file turn out to be corrupt (or truncated), it
+     * is deleted and the remaining rows are read from the workbook instead.
+     */
+    private class CachedSheetReader extends SheetReader {
+
+        private final DataInputStream in;
+        private final String sheetName;
+        private final File file;
+
+        private int lastRowNum = -1;
+        private SheetReader workbookSheetReader;
+
+        CachedSheetReader(final DataInputStream in, final String sheetName, final File file) {
+            this.in = in;
+            this.sheetName = sheetName;
+            this.file = file;
+        }
+
+        @Override
+        protected SheetRow computeNext() {
+            if(workbookSheetReader == null) {
+                try {
+                    final SheetRow row = readRow();
+                    if(row == null) {
+                        return endOfData();
+                    }
+                    lastRowNum = row.getRowNum();
+                    return row;
+                } catch (final IOException ex) {
+                    openWorkbookSheet();
+                }
+            }
+            // rows are in order, so skip over those already read from the cache
+            while (workbookSheetReader.hasNext()) {
+                final SheetRow row = workbookSheetReader.next();
+                if(row.getRowNum() > lastRowNum) {
+                    return row;
+                }
+            }
+            return endOfData();
+        }
+
+        /**
+         * @return the next row, or <tt>null</tt> if there are no more.
+         */
+        private SheetRow readRow() throws IOException {
+            final int rowNum = in.readInt();
+            if(rowNum == END_OF_ROWS) {
+                return null;
+            }
+            if(rowNum <= lastRowNum) {
+                throw new IOException("Corrupt cache file " + file);
+            }
+            final int numColumns = in.readInt();
+            if(numColumns < 0) {
+                throw new IOException("Corrupt cache file " + file);
+            }
+            final Object[] values = new Object[numColumns];
+            for (int columnIndex = 0; columnIndex < values.length; columnIndex++) {
+                final byte type = in.readByte();
+                switch (type) {
+                case NULL:
+                    values[columnIndex] = null;
+                    break;
+                case STRING:
+                    values[columnIndex] = readString(in);
+                    break;
+                case DOUBLE:
+                    values[columnIndex] = in.readDouble();
+                    break;
+                case BOOLEAN:
+                    values[columnIndex] = in.readBoolean();
+                    break;
+                default:
+                    throw new IOException("Corrupt cache file " + file);
+                }
+            }
+            final int numComments = in.readInt();
+            final Map<Integer, String> commentByColumn =
+                    numComments > 0 ? Maps.<Integer, String>newHashMap() : null;
+            for (int i = 0; i < numComments; i++) {
+                commentByColumn.put(in.readInt(), readString(in));
+            }
+            return new CachedRow(rowNum, values, commentByColumn);
+        }
+
+        private void openWorkbookSheet() {
+            try {
+                in.close();
+            } catch (final IOException ex) {
+                // ignore
+            }
+            // so that it is cached afresh by the next import
+            file.delete();
+            try {
+                workbookSheetReader = getWorkbookReader().openSheet(sheetName);
+            } catch (final IOException | InvalidFormatException ex) {
+                throw new ExcelService.Exception(ex);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+            if(workbookSheetReader != null) {
+                workbookSheetReader.close();
+            }
+        }
+    }
+
+    private static class CachedRow extends SheetRow {
+
+        private final Map<Integer, String> commentByColumn;
+
+        CachedRow(final int rowNum, final Object[] values, final Map<Integer, String> commentByColumn) {
+            super(rowNum, values);
+            this.commentByColumn = commentByColumn;
+        }
+
+        @Override
+        String getComment(final int columnIndex) {
+            return commentByColumn != null ? commentByColumn.get(columnIndex) : null;
+        }
+    }
+
+}
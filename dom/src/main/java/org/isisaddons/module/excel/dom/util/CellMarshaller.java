@@ -18,7 +18,12 @@ package org.isisaddons.module.excel.dom.util;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
 import org.apache.poi.hssf.usermodel.HSSFCell;
 import org.apache.poi.ss.usermodel.*;
 import org.joda.time.DateTime;
@@ -27,27 +32,214 @@ import org.joda.time.LocalDateTime;
 import org.apache.isis.applib.services.bookmark.Bookmark;
 import org.apache.isis.applib.services.bookmark.BookmarkService;
 import org.apache.isis.core.metamodel.adapter.ObjectAdapter;
-import org.apache.isis.core.metamodel.spec.ObjectSpecification;
-import org.apache.isis.core.metamodel.spec.feature.OneToOneAssociation;
 
 final class CellMarshaller {
 
     private final CellStyle dateCellStyle;
     private final BookmarkService bookmarkService;
+    private final ReferenceCache referenceCache;
+    private final BookmarkResolver bookmarkResolver;
+    private final boolean date1904;
 
     CellMarshaller(
             final BookmarkService bookmarkService, 
             final CellStyle dateCellStyle){
+        this(bookmarkService, dateCellStyle, new ReferenceCache());
+    }
+
+    /**
+     * For import, decoding dates according to the date system of the workbook being read.
+     *
+     * @param bookmarkResolver - shared by all the sheets of a single import.
+     */
+    CellMarshaller(
+            final BookmarkService bookmarkService,
+            final BookmarkResolver bookmarkResolver,
+            final boolean date1904){
+        this.bookmarkService = bookmarkService;
+        this.dateCellStyle = null;
+        this.referenceCache = null;
+        this.bookmarkResolver = bookmarkResolver;
+        this.date1904 = date1904;
+    }
+
+    /**
+     * @param referenceCache - shared by all the sheets of a single export.
+     */
+    CellMarshaller(
+            final BookmarkService bookmarkService,
+            final CellStyle dateCellStyle,
+            final ReferenceCache referenceCache){
         this.bookmarkService = bookmarkService;
         this.dateCellStyle = dateCellStyle;
+        this.referenceCache = referenceCache;
+        this.bookmarkResolver = null;
+        this.date1904 = false;
     }
     
+    /**
+     * Writes a value of a particular (declared) type, selected once per column so that the type of each value need
+     * not be checked cell by cell.  Only columns whose declared type is not specific enough use {@link #DYNAMIC}.
+     */
+    enum ValueWriter {
+        STRING {
+            @Override
+            boolean write(final CellMarshaller marshaller, final Cell cell, final Object value) {
+                setCellValueForString(cell, (String) value);
+                return true;
+            }
+        },
+        BOOLEAN {
+            @Override
+            boolean write(final CellMarshaller marshaller, final Cell cell, final Object value) {
+                cell.setCellValue((Boolean) value);
+                cell.setCellType(HSSFCell.CELL_TYPE_BOOLEAN);
+                return true;
+            }
+        },
+        DATE {
+            @Override
+            boolean write(final CellMarshaller marshaller, final Cell cell, final Object value) {
+                setCellValueForDate(cell, (Date) value, marshaller.dateCellStyle);
+                return true;
+            }
+        },
+        ISIS_DATE {
+            @Override
+            boolean write(final CellMarshaller marshaller, final Cell cell, final Object value) {
+                setCellValueForDate(cell, ((org.apache.isis.applib.value.Date) value).dateValue(), marshaller.dateCellStyle);
+                return true;
+            }
+        },
+        ISIS_DATE_TIME {
+            @Override
+            boolean write(final CellMarshaller marshaller, final Cell cell, final Object value) {
+                setCellValueForDate(cell, ((org.apache.isis.applib.value.DateTime) value).dateValue(), marshaller.dateCellStyle);
+                return true;
+            }
+        },
+        LOCAL_DATE {
+            @Override
+            boolean write(final CellMarshaller marshaller, final Cell cell, final Object value) {
+                setCellValueForDate(cell, ((LocalDate) value).toDateTimeAtStartOfDay().toDate(), marshaller.dateCellStyle);
+                return true;
+            }
+        },
+        LOCAL_DATE_TIME {
+            @Override
+            boolean write(final CellMarshaller marshaller, final Cell cell, final Object value) {
+                setCellValueForDate(cell, ((LocalDateTime) value).toDate(), marshaller.dateCellStyle);
+                return true;
+            }
+        },
+        DATE_TIME {
+            @Override
+            boolean write(final CellMarshaller marshaller, final Cell cell, final Object value) {
+                setCellValueForDate(cell, ((DateTime) value).toDate(), marshaller.dateCellStyle);
+                return true;
+            }
+        },
+        NUMBER {
+            @Override
+            boolean write(final CellMarshaller marshaller, final Cell cell, final Object value) {
+                setCellValueForDouble(cell, ((Number) value).doubleValue());
+                return true;
+            }
+        },
+        ENUM {
+            @Override
+            boolean write(final CellMarshaller marshaller, final Cell cell, final Object value) {
+                setCellValueForEnum(cell, (Enum<?>) value);
+                return true;
+            }
+        },
+        DYNAMIC {
+            @Override
+            boolean write(final CellMarshaller marshaller, final Cell cell, final Object value) {
+                return marshaller.setCellValue(cell, value);
+            }
+        };
+
+        /**
+         * @return whether the value was written; if not then it is treated as a reference.
+         */
+        abstract boolean write(final CellMarshaller marshaller, final Cell cell, final Object value);
+
+        private static final List<Class<?>> NUMBER_TYPES = Arrays.<Class<?>>asList(
+                double.class, Double.class, float.class, Float.class, BigDecimal.class, BigInteger.class,
+                long.class, Long.class, int.class, Integer.class, short.class, Short.class, byte.class, Byte.class);
+
+        static ValueWriter forType(final Class<?> type) {
+            if(type == String.class) {
+                return STRING;
+            }
+            if(type == boolean.class || type == Boolean.class) {
+                return BOOLEAN;
+            }
+            if(Date.class.isAssignableFrom(type)) {
+                return DATE;
+            }
+            if(type == org.apache.isis.applib.value.Date.class) {
+                return ISIS_DATE;
+            }
+            if(type == org.apache.isis.applib.value.DateTime.class) {
+                return ISIS_DATE_TIME;
+            }
+            if(type == LocalDate.class) {
+                return LOCAL_DATE;
+            }
+            if(type == LocalDateTime.class) {
+                return LOCAL_DATE_TIME;
+            }
+            if(type == DateTime.class) {
+                return DATE_TIME;
+            }
+            if(NUMBER_TYPES.contains(type)) {
+                return NUMBER;
+            }
+            if(Enum.class.isAssignableFrom(type)) {
+                return ENUM;
+            }
+            return DYNAMIC;
+        }
+    }
+
+    /**
+     * Writes the value of a column that has a {@link ColumnPlan.Column#getGetter() getter}, reading it directly from
+     * the domain object rather than through an {@link ObjectAdapter}.
+     */
     void setCellValue(
-            final ObjectAdapter objectAdapter, 
-            final OneToOneAssociation otoa, 
+            final Object domainObject,
+            final ColumnPlan.Column column,
             final Cell cell) {
+
+        final Object value;
+        try {
+            value = column.getGetter().invokeExact(domainObject);
+        } catch (final Throwable ex) {
+            throw Throwables.propagate(ex);
+        }
+
+        // null
+        if (value == null) {
+            cell.setCellType(HSSFCell.CELL_TYPE_BLANK);
+            return;
+        }
+
+        column.getValueWriter().write(this, cell, value);
+    }
+
+    /**
+     * @param bookmarkColumnIndex - the (hidden) column in which to write the bookmark of a reference, or -1 to
+     *                            write it as a comment on the cell instead.
+     */
+    void setCellValue(
+            final ObjectAdapter objectAdapter, 
+            final ColumnPlan.Column column,
+            final Cell cell,
+            final int bookmarkColumnIndex) {
         
-        final ObjectAdapter propertyAdapter = otoa.get(objectAdapter);
+        final ObjectAdapter propertyAdapter = column.getAssociation().get(objectAdapter);
         
         // null
         if (propertyAdapter == null) {
@@ -55,25 +247,24 @@ final class CellMarshaller {
             return;
         }
         
-        final ObjectSpecification propertySpec = otoa.getSpecification();
         final Object propertyAsObj = propertyAdapter.getObject();
-        final String propertyAsTitle = propertyAdapter.titleString(null);
         
         // value types
-        if(propertySpec.isValue()) {
-            if(setCellValue(cell, propertyAsObj)) {
+        final ValueWriter valueWriter = column.getValueWriter();
+        if(valueWriter != null) {
+            if(valueWriter.write(this, cell, propertyAsObj)) {
                 return;
             }
         }
-        
+
         // reference types
-        if(!propertySpec.isParentedOrFreeCollection()) {
-            setCellValueForBookmark(cell, propertyAsObj, propertyAsTitle);
+        if(column.isReference()) {
+            setCellValueForBookmark(cell, referenceFor(propertyAdapter), bookmarkColumnIndex);
             return;
         }
 
         // fallback, best effort
-        setCellValueForString(cell, propertyAsTitle);
+        setCellValueForString(cell, propertyAdapter.titleString(null));
         return;
     }
 
@@ -189,11 +380,32 @@ final class CellMarshaller {
         cell.setCellType(HSSFCell.CELL_TYPE_STRING);
     }
 
-    private void setCellValueForBookmark(final Cell cell, final Object propertyAsObject, final String propertyAsTitle) {
-        Bookmark bookmark = bookmarkService.bookmarkFor(propertyAsObject);
-        setCellComment(cell, bookmark.toString());
+    /**
+     * The title and bookmark of a referenced object, each obtained only once per export.
+     */
+    private ReferenceCache.Reference referenceFor(final ObjectAdapter propertyAdapter) {
+        final Object propertyAsObj = propertyAdapter.getObject();
+        ReferenceCache.Reference reference = referenceCache.get(propertyAsObj);
+        if(reference == null) {
+            final String title = propertyAdapter.titleString(null);
+            final Bookmark bookmark = bookmarkService.bookmarkFor(propertyAsObj);
+            reference = new ReferenceCache.Reference(title, bookmark.toString());
+            referenceCache.put(propertyAsObj, reference);
+        }
+        return reference;
+    }
+
+    private void setCellValueForBookmark(
+            final Cell cell,
+            final ReferenceCache.Reference reference,
+            final int bookmarkColumnIndex) {
+        if(bookmarkColumnIndex >= 0) {
+            setCellValueForString(cell.getRow().createCell(bookmarkColumnIndex), reference.getBookmark());
+        } else {
+            setCellComment(cell, reference.getBookmark());
+        }
         
-        cell.setCellValue(propertyAsTitle);
+        cell.setCellValue(reference.getTitle());
         cell.setCellType(HSSFCell.CELL_TYPE_STRING);
     }
 
@@ -208,14 +420,18 @@ final class CellMarshaller {
         anchor.setRow1(row.getRowNum());
         anchor.setRow2(row.getRowNum()+3);
         
-        Drawing drawing = sheet.createDrawingPatriarch();
-        Comment comment1 = drawing.createCellComment(anchor);
-        
-        RichTextString commentRtf = creationHelper.createRichTextString(commentText);
-        
-        comment1.setString(commentRtf);
-        Comment comment = comment1;
-        cell.setCellComment(comment);
+        // the drawing and comments parts belong to the workbook's package, which may be shared by sheets being
+        // generated in parallel
+        synchronized (workbook) {
+            Drawing drawing = sheet.createDrawingPatriarch();
+            Comment comment1 = drawing.createCellComment(anchor);
+
+            RichTextString commentRtf = creationHelper.createRichTextString(commentText);
+
+            comment1.setString(commentRtf);
+            Comment comment = comment1;
+            cell.setCellComment(comment);
+        }
     }
 
     private static <E extends Enum<E>> void setCellValueForEnum(final Cell cell, final Enum<E> objectAsStr) {
@@ -233,183 +449,282 @@ final class CellMarshaller {
         cell.setCellStyle(dateCellStyle);
     }
 
-    String getStringCellValue(Cell cell) {
-        return getCellValue(cell, String.class);
+    String getStringCellValue(final Object value) {
+        return value instanceof String ? (String) value : null;
     }
 
-    Object getCellValue(final Cell cell, final OneToOneAssociation otoa) {
+    /**
+     * Reads a value of a particular (declared) type from the raw value of a cell (see {@link SheetRow}), selected
+     * once per column so that the type required need not be checked cell by cell.
+     */
+    abstract static class ValueReader {
 
-        final int cellType = cell.getCellType();
+        /**
+         * @param value - the raw value of the cell, not <tt>null</tt>.
+         */
+        abstract Object read(CellMarshaller marshaller, Object value, SheetRow row, int columnIndex);
 
-        if(cellType == HSSFCell.CELL_TYPE_BLANK) {
-            return null;
-        }
+        static final ValueReader NONE = new ValueReader() {
+            @Override
+            Object read(final CellMarshaller marshaller, final Object value, final SheetRow row, final int columnIndex) {
+                return null;
+            }
+        };
+        static final ValueReader STRING = new ValueReader() {
+            @Override
+            Object read(final CellMarshaller marshaller, final Object value, final SheetRow row, final int columnIndex) {
+                return value instanceof String ? value : null;
+            }
+        };
+        static final ValueReader BOOLEAN = new ValueReader() {
+            @Override
+            Object read(final CellMarshaller marshaller, final Object value, final SheetRow row, final int columnIndex) {
+                return value instanceof Boolean ? value : null;
+            }
+        };
+        static final ValueReader DATE = new ValueReader() {
+            @Override
+            Object read(final CellMarshaller marshaller, final Object value, final SheetRow row, final int columnIndex) {
+                return marshaller.getDateValue(value);
+            }
+        };
+        static final ValueReader ISIS_DATE = new ValueReader() {
+            @Override
+            Object read(final CellMarshaller marshaller, final Object value, final SheetRow row, final int columnIndex) {
+                return new org.apache.isis.applib.value.Date(marshaller.getDateValue(value));
+            }
+        };
+        static final ValueReader ISIS_DATE_TIME = new ValueReader() {
+            @Override
+            Object read(final CellMarshaller marshaller, final Object value, final SheetRow row, final int columnIndex) {
+                return new org.apache.isis.applib.value.DateTime(marshaller.getDateValue(value));
+            }
+        };
+        static final ValueReader LOCAL_DATE = new ValueReader() {
+            @Override
+            Object read(final CellMarshaller marshaller, final Object value, final SheetRow row, final int columnIndex) {
+                return new LocalDate(marshaller.getDateValue(value).getTime());
+            }
+        };
+        static final ValueReader LOCAL_DATE_TIME = new ValueReader() {
+            @Override
+            Object read(final CellMarshaller marshaller, final Object value, final SheetRow row, final int columnIndex) {
+                return new LocalDateTime(marshaller.getDateValue(value).getTime());
+            }
+        };
+        static final ValueReader DATE_TIME = new ValueReader() {
+            @Override
+            Object read(final CellMarshaller marshaller, final Object value, final SheetRow row, final int columnIndex) {
+                return new DateTime(marshaller.getDateValue(value).getTime());
+            }
+        };
 
-        final ObjectSpecification propertySpec = otoa.getSpecification();
-        Class<?> requiredType = propertySpec.getCorrespondingClass();
-        
-        // value types
-        if(propertySpec.isValue()) {
-            return getCellValue(cell, requiredType);
-        }
-        
-        // reference types
-        if(!propertySpec.isParentedOrFreeCollection()) {
-            return getCellComment(cell, requiredType);
+        /**
+         * Numbers are held as doubles, and are narrowed to the required type; any other value is ignored.
+         */
+        private abstract static class NumberReader extends ValueReader {
+            @Override
+            final Object read(final CellMarshaller marshaller, final Object value, final SheetRow row, final int columnIndex) {
+                return value instanceof Double ? narrow((Double) value) : null;
+            }
+
+            abstract Object narrow(double value);
         }
-        
-        return null;
-    }
 
-    @SuppressWarnings("unchecked")
-    private <T> T getCellValue(final Cell cell, final Class<T> requiredType) {
-        final int cellType = cell.getCellType();
+        static final ValueReader DOUBLE = new NumberReader() {
+            @Override
+            Object narrow(final double value) {
+                return value;
+            }
+        };
+        static final ValueReader FLOAT = new NumberReader() {
+            @Override
+            Object narrow(final double value) {
+                return (float) value;
+            }
+        };
+        static final ValueReader BIG_DECIMAL = new NumberReader() {
+            @Override
+            Object narrow(final double value) {
+                return BigDecimal.valueOf(value);
+            }
+        };
+        static final ValueReader BIG_INTEGER = new NumberReader() {
+            @Override
+            Object narrow(final double value) {
+                return BigInteger.valueOf((long) value);
+            }
+        };
+        static final ValueReader LONG = new NumberReader() {
+            @Override
+            Object narrow(final double value) {
+                return (long) value;
+            }
+        };
+        static final ValueReader INTEGER = new NumberReader() {
+            @Override
+            Object narrow(final double value) {
+                return (int) value;
+            }
+        };
+        static final ValueReader SHORT = new NumberReader() {
+            @Override
+            Object narrow(final double value) {
+                return (short) value;
+            }
+        };
+        static final ValueReader BYTE = new NumberReader() {
+            @Override
+            Object narrow(final double value) {
+                return (byte) value;
+            }
+        };
 
-        if(requiredType == boolean.class || requiredType == Boolean.class) {
-            if(cellType == HSSFCell.CELL_TYPE_BOOLEAN) {
-                boolean booleanCellValue = cell.getBooleanCellValue();
-                return (T) Boolean.valueOf(booleanCellValue);
-            } else {
-                return null;
+        /**
+         * Looks up the constants of an enum by name.
+         */
+        private static class EnumReader extends ValueReader {
+            private final Class<?> enumType;
+            private final Map<String, Object> constantByName = Maps.newHashMap();
+
+            EnumReader(final Class<?> enumType) {
+                this.enumType = enumType;
+                for (final Object constant : enumType.getEnumConstants()) {
+                    constantByName.put(((Enum<?>) constant).name(), constant);
+                }
+            }
+
+            @Override
+            Object read(final CellMarshaller marshaller, final Object value, final SheetRow row, final int columnIndex) {
+                final String name = getStringValueStrictly(value);
+                final Object constant = constantByName.get(name);
+                if(constant == null) {
+                    throw new IllegalArgumentException(
+                            String.format("No enum constant %s.%s", enumType.getCanonicalName(), name));
+                }
+                return constant;
             }
-        }
-        
-        // enum
-        if(Enum.class.isAssignableFrom(requiredType)) {
-            String stringCellValue = cell.getStringCellValue();
-            @SuppressWarnings("rawtypes")
-            Class rawType = requiredType;
-            return (T) Enum.valueOf(rawType, stringCellValue);
-        }
-        
-        // date
-        if(requiredType == java.util.Date.class) {
-            java.util.Date dateCellValue = cell.getDateCellValue();
-            return (T) dateCellValue;
         }
 
-        if(requiredType == org.apache.isis.applib.value.Date.class) {
-            java.util.Date dateCellValue = cell.getDateCellValue();
-            return (T)new org.apache.isis.applib.value.Date(dateCellValue);
-        } 
+        /**
+         * Looks up the object referenced by the bookmark held as a comment on the cell.
+         */
+        private static class ReferenceReader extends ValueReader {
+            private final Class<?> type;
 
-        if(requiredType == org.apache.isis.applib.value.DateTime.class) {
-            java.util.Date dateCellValue = cell.getDateCellValue();
-            return (T)new org.apache.isis.applib.value.DateTime(dateCellValue);
-        } 
-        
-        if(requiredType == LocalDate.class) {
-            java.util.Date dateCellValue = cell.getDateCellValue();
-            return (T) new LocalDate(dateCellValue.getTime());
-        } 
-        
-        if(requiredType == LocalDateTime.class) {
-            java.util.Date dateCellValue = cell.getDateCellValue();
-            return (T) new LocalDateTime(dateCellValue.getTime());
-        } 
+            ReferenceReader(final Class<?> type) {
+                this.type = type;
+            }
 
-        if(requiredType == DateTime.class) {
-            java.util.Date dateCellValue = cell.getDateCellValue();
-            return (T) new DateTime(dateCellValue.getTime());
-        } 
-        
-        
-        // number
-        if(requiredType == double.class || requiredType == Double.class) {
-            if(cellType == HSSFCell.CELL_TYPE_NUMERIC) {
-                double doubleValue = cell.getNumericCellValue();
-                return (T) Double.valueOf(doubleValue);
-            } else {
-                return null;
+            @Override
+            Object read(final CellMarshaller marshaller, final Object value, final SheetRow row, final int columnIndex) {
+                return marshaller.getCellComment(row.getComment(columnIndex), type);
             }
-        } 
-        
-        if(requiredType == float.class || requiredType == Float.class) {
-            if(cellType == HSSFCell.CELL_TYPE_NUMERIC) {
-                float floatValue = (float)cell.getNumericCellValue();
-                return (T) Float.valueOf(floatValue);
-            } else {
-                return null;
+        }
+
+        static ValueReader forValueType(final Class<?> type) {
+            if(type == String.class) {
+                return STRING;
             }
-        } 
-        
-        if(requiredType == BigDecimal.class) {
-            if(cellType == HSSFCell.CELL_TYPE_NUMERIC) {
-                double doubleValue = cell.getNumericCellValue();
-                return (T) BigDecimal.valueOf(doubleValue);
-            } else {
-                return null;
+            if(type == boolean.class || type == Boolean.class) {
+                return BOOLEAN;
             }
-        } 
-        
-        if(requiredType == BigInteger.class) {
-            if(cellType == HSSFCell.CELL_TYPE_NUMERIC) {
-                long longValue = (long)cell.getNumericCellValue();
-                return (T) BigInteger.valueOf(longValue);
-            } else {
-                return null;
+            if(Enum.class.isAssignableFrom(type)) {
+                return new EnumReader(type);
             }
-        } 
-
-        if(requiredType == long.class || requiredType == Long.class) {
-            if(cellType == HSSFCell.CELL_TYPE_NUMERIC) {
-                long longValue = (long) cell.getNumericCellValue();
-                return (T) Long.valueOf(longValue);
-            } else {
-                return null;
+            if(type == java.util.Date.class) {
+                return DATE;
             }
-        } 
-        
-        if(requiredType == int.class || requiredType == Integer.class) {
-            if(cellType == HSSFCell.CELL_TYPE_NUMERIC) {
-                int intValue = (int) cell.getNumericCellValue();
-                return (T) Integer.valueOf(intValue);
-            } else {
-                return null;
+            if(type == org.apache.isis.applib.value.Date.class) {
+                return ISIS_DATE;
             }
-        } 
-        
-        if(requiredType == short.class || requiredType == Short.class) {
-            if(cellType == HSSFCell.CELL_TYPE_NUMERIC) {
-                short shortValue = (short) cell.getNumericCellValue();
-                return (T) Short.valueOf(shortValue);
-            } else {
-                return null;
+            if(type == org.apache.isis.applib.value.DateTime.class) {
+                return ISIS_DATE_TIME;
             }
-        } 
-        
-        if(requiredType == byte.class || requiredType == Byte.class) {
-            if(cellType == HSSFCell.CELL_TYPE_NUMERIC) {
-                byte byteValue = (byte) cell.getNumericCellValue();
-                return (T) Byte.valueOf(byteValue);
-            } else {
-                return null;
+            if(type == LocalDate.class) {
+                return LOCAL_DATE;
             }
-        } 
-
-        if(requiredType == String.class) {
-            if(cellType == HSSFCell.CELL_TYPE_STRING) {
-                return (T) cell.getStringCellValue();
-            } else {
-                return null;
+            if(type == LocalDateTime.class) {
+                return LOCAL_DATE_TIME;
+            }
+            if(type == DateTime.class) {
+                return DATE_TIME;
+            }
+            if(type == double.class || type == Double.class) {
+                return DOUBLE;
+            }
+            if(type == float.class || type == Float.class) {
+                return FLOAT;
+            }
+            if(type == BigDecimal.class) {
+                return BIG_DECIMAL;
+            }
+            if(type == BigInteger.class) {
+                return BIG_INTEGER;
             }
+            if(type == long.class || type == Long.class) {
+                return LONG;
+            }
+            if(type == int.class || type == Integer.class) {
+                return INTEGER;
+            }
+            if(type == short.class || type == Short.class) {
+                return SHORT;
+            }
+            if(type == byte.class || type == Byte.class) {
+                return BYTE;
+            }
+            return NONE;
+        }
+
+        static ValueReader forReferenceType(final Class<?> type) {
+            return new ReferenceReader(type);
         }
-        return null;
     }
 
-    private Object getCellComment(final Cell cell, final Class<?> requiredType) {
-        final Comment comment = cell.getCellComment();
-        if(comment == null) {
-            return null;
-        } 
-        final RichTextString commentRts = comment.getString();
-        if(commentRts == null) {
+    /**
+     * @param valueReader - as resolved for the column, see {@link ColumnPlan.Column#getValueReader()}.
+     */
+    Object getCellValue(final SheetRow row, final int columnIndex, final ValueReader valueReader) {
+        final Object value = row.getValue(columnIndex);
+        return value != null ? valueReader.read(this, value, row, columnIndex) : null;
+    }
+
+    private static String getStringValueStrictly(final Object value) {
+        if(!(value instanceof String)) {
+            throw new IllegalStateException(String.format("Cannot get a text value from '%s'", value));
+        }
+        return (String) value;
+    }
+
+    private java.util.Date getDateValue(final Object value) {
+        if(!(value instanceof Double)) {
+            throw new IllegalStateException(String.format("Cannot get a date value from '%s'", value));
+        }
+        return DateUtil.getJavaDate((Double) value, date1904);
+    }
+
+    /**
+     * The bookmark held in a (hidden) bookmark column, if any.
+     */
+    private String getBookmarkCellString(final SheetRow row, final int columnIndex) {
+        final String bookmarkStr = getStringCellValue(row.getValue(columnIndex));
+        return bookmarkStr == null || bookmarkStr.isEmpty() ? null : bookmarkStr;
+    }
+
+    /**
+     * The object referenced by the bookmark held in a (hidden) bookmark column.
+     */
+    Object getBookmarkCellValue(final SheetRow row, final int columnIndex, final Class<?> requiredType) {
+        return getCellComment(getBookmarkCellString(row, columnIndex), requiredType);
+    }
+
+    private Object getCellComment(final String bookmarkStr, final Class<?> requiredType) {
+        if(bookmarkStr == null) {
             return null;
         }
-        final String bookmarkStr = commentRts.getString();
-        final Bookmark bookmark = new Bookmark(bookmarkStr);
-        return bookmarkService.lookup(bookmark, requiredType);
+        return bookmarkResolver.lookup(bookmarkStr, requiredType);
     }
     
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,501 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.PostConstruct;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+
+import org.apache.isis.applib.annotation.Where;
+import org.apache.isis.applib.filter.Filter;
+import org.apache.isis.applib.filter.Filters;
+import org.apache.isis.core.metamodel.facets.ImperativeFacet;
+import org.apache.isis.core.metamodel.facets.object.defaults.DefaultedFacet;
+import org.apache.isis.core.metamodel.facets.object.recreatable.RecreatableObjectFacetDeclarativeInitializingAbstract;
+import org.apache.isis.core.metamodel.facets.object.viewmodel.ViewModelFacet;
+import org.apache.isis.core.metamodel.facets.objectvalue.mandatory.MandatoryFacet;
+import org.apache.isis.core.metamodel.facets.propcoll.accessor.PropertyOrCollectionAccessorFacet;
+import org.apache.isis.core.metamodel.facets.properties.defaults.PropertyDefaultFacet;
+import org.apache.isis.core.metamodel.facets.properties.defaults.fromtype.PropertyDefaultFacetDerivedFromDefaultedFacet;
+import org.apache.isis.core.metamodel.facets.properties.property.modify.PropertyDomainEventFacet;
+import org.apache.isis.core.metamodel.facets.properties.property.modify.PropertySetterOrClearFacetForDomainEventAbstract;
+import org.apache.isis.core.metamodel.facets.properties.update.modify.PropertySetterFacet;
+import org.apache.isis.core.metamodel.facets.properties.update.modify.PropertySetterFacetViaSetterMethod;
+import org.apache.isis.core.metamodel.spec.ObjectSpecification;
+import org.apache.isis.core.metamodel.spec.feature.Contributed;
+import org.apache.isis.core.metamodel.spec.feature.ObjectAssociation;
+import org.apache.isis.core.metamodel.spec.feature.OneToOneAssociation;
+import org.apache.isis.core.metamodel.specloader.SpecificationLoader;
+
+import org.datanucleus.enhancement.Persistable;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+
+/**
+ * The columns of a class, worked out from the metamodel once and then reused by every export and import of that
+ * class.
+ *
+ * <p>
+ *     Plans are cached against the class (they do not depend on anything else in the
+ *     {@link org.isisaddons.module.excel.dom.WorksheetSpec}), and are discarded if the metamodel is rebuilt, ie if
+ *     the {@link ObjectSpecification} of the class is no longer the one the plan was built from.
+ * </p>
+ */
+final class ColumnPlan {
+
+    @SuppressWarnings({ "unchecked", "deprecation" })
+    private static final Filter<ObjectAssociation> VISIBLE_PROPERTIES = Filters.and(
+            ObjectAssociation.Filters.PROPERTIES,
+            ObjectAssociation.Filters.staticallyVisible(Where.STANDALONE_TABLES));
+
+    /**
+     * Suffix of the header of the (hidden) column holding the bookmarks of a reference property, if bookmarks are not
+     * held as cell comments.
+     */
+    static final String BOOKMARK_HEADER_SUFFIX = " [bookmark]";
+
+    private static final Cache<Class<?>, ColumnPlan> PLANS =
+            CacheBuilder.newBuilder().weakKeys().softValues().build();
+
+    static ColumnPlan of(final Class<?> cls, final SpecificationLoader specificationLoader) {
+        final ObjectSpecification objectSpec = specificationLoader.loadSpecification(cls);
+        final ColumnPlan cached = PLANS.getIfPresent(cls);
+        if(cached != null && cached.objectSpec == objectSpec) {
+            return cached;
+        }
+        final ColumnPlan plan = new ColumnPlan(objectSpec);
+        PLANS.put(cls, plan);
+        return plan;
+    }
+
+    static class Column {
+        private final OneToOneAssociation association;
+        private final Class<?> type;
+        private final CellMarshaller.ValueWriter valueWriter;
+        private final CellMarshaller.ValueReader valueReader;
+        private final boolean reference;
+        private final MethodHandle setter;
+        private final MethodHandle getter;
+
+        Column(final OneToOneAssociation association, final Class<?> cls) {
+            this.association = association;
+            final ObjectSpecification propertySpec = association.getSpecification();
+            this.type = propertySpec.getCorrespondingClass();
+            this.valueWriter = propertySpec.isValue() ? CellMarshaller.ValueWriter.forType(type) : null;
+            this.reference = !propertySpec.isParentedOrFreeCollection();
+            this.valueReader = propertySpec.isValue()
+                    ? CellMarshaller.ValueReader.forValueType(type)
+                    : reference
+                        ? CellMarshaller.ValueReader.forReferenceType(type)
+                        : CellMarshaller.ValueReader.NONE;
+            this.setter = setterFor(association);
+            // references (and values of no particular type) are still read through the metamodel, eg so that
+            // objects not visible to the user are not exported
+            this.getter = valueWriter != null && valueWriter != CellMarshaller.ValueWriter.DYNAMIC
+                    ? getterFor(cls, association)
+                    : null;
+        }
+
+        OneToOneAssociation getAssociation() {
+            return association;
+        }
+
+        String getName() {
+            return association.getName();
+        }
+
+        /**
+         * The declared type of the property.
+         */
+        Class<?> getType() {
+            return type;
+        }
+
+        /**
+         * How to write the values of this column, or <tt>null</tt> if the property is not a value type.
+         */
+        CellMarshaller.ValueWriter getValueWriter() {
+            return valueWriter;
+        }
+
+        /**
+         * How to read the values of this column on import.
+         */
+        CellMarshaller.ValueReader getValueReader() {
+            return valueReader;
+        }
+
+        /**
+         * Whether the property is (or otherwise is to be treated as) a reference to another object, written as its
+         * title and bookmark.
+         */
+        boolean isReference() {
+            return reference;
+        }
+
+        /**
+         * Whether a bookmark is written for each value of this column (as opposed to references held in
+         * {@link CellMarshaller.ValueWriter#DYNAMIC dynamically} typed value columns).
+         */
+        boolean isBookmarked() {
+            return valueWriter == null && reference;
+        }
+
+        String getBookmarkHeader() {
+            return getName() + BOOKMARK_HEADER_SUFFIX;
+        }
+
+        /**
+         * The setter through which the property can be populated directly, or <tt>null</tt> if setting the property
+         * through the metamodel would do more than just call it (eg call a <tt>modifyXxx</tt> supporting method, or
+         * post a domain event, as the metamodel does by default for every property).
+         *
+         * <p>
+         *     The handle is of type <tt>(Object, Object)void</tt>, so can be invoked exactly with the domain object
+         *     and the (non-null) value.
+         * </p>
+         */
+        MethodHandle getSetter() {
+            return setter;
+        }
+
+        /**
+         * The getter through which the value of the property can be read directly on export, or <tt>null</tt> if it
+         * must be read through the metamodel; that is, unless the metamodel reads the property using just a public
+         * getter of the class (rather than eg a contributed or mixed-in property), and the property is a value type.
+         *
+         * <p>
+         *     The handle is of type <tt>(Object)Object</tt>, so can be invoked exactly with the domain object.
+         * </p>
+         */
+        MethodHandle getGetter() {
+            return getter;
+        }
+
+        private static MethodHandle getterFor(final Class<?> cls, final OneToOneAssociation association) {
+            final PropertyOrCollectionAccessorFacet accessorFacet =
+                    association.getFacet(PropertyOrCollectionAccessorFacet.class);
+            if(!(accessorFacet instanceof ImperativeFacet)) {
+                return null;
+            }
+            final List<Method> methods = ((ImperativeFacet) accessorFacet).getMethods();
+            if(methods.size() != 1) {
+                return null;
+            }
+            final Method method = methods.get(0);
+            if(method.getParameterTypes().length != 0 || !method.getDeclaringClass().isAssignableFrom(cls)) {
+                return null;
+            }
+            try {
+                return MethodHandles.publicLookup().unreflect(method)
+                        .asType(MethodType.methodType(Object.class, Object.class));
+            } catch (final IllegalAccessException e) {
+                return null;
+            }
+        }
+
+        private static MethodHandle setterFor(final OneToOneAssociation association) {
+            final PropertySetterFacet setterFacet = association.getFacet(PropertySetterFacet.class);
+            if(setterFacet instanceof PropertySetterOrClearFacetForDomainEventAbstract ||
+               association.getFacet(PropertyDomainEventFacet.class) != null) {
+                return null;
+            }
+            if(!(setterFacet instanceof PropertySetterFacetViaSetterMethod)) {
+                // eg a modifyXxx supporting method, or a derived property
+                return null;
+            }
+            final List<Method> methods = ((PropertySetterFacetViaSetterMethod) setterFacet).getMethods();
+            if(methods.size() != 1) {
+                return null;
+            }
+            try {
+                return MethodHandles.publicLookup().unreflect(methods.get(0))
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            } catch (final IllegalAccessException e) {
+                // eg a setter of a class that is not public
+                return null;
+            }
+        }
+    }
+
+    private static boolean hasMethod(final Class<?> cls, final String methodName) {
+        for (final Method method : cls.getMethods()) {
+            if(method.getName().equals(methodName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final ObjectSpecification objectSpec;
+    private final List<Column> columns;
+    private final Map<String, Column> columnByHeader;
+    private final Map<String, Set<String>> ambiguousPropertyIdsByHeader;
+    private final boolean directlyPopulatableViewModel;
+    private final boolean directlyPopulatablePlainObject;
+    private final String fingerprint;
+
+    private ColumnPlan(final ObjectSpecification objectSpec) {
+        this.objectSpec = objectSpec;
+        final Class<?> cls = objectSpec.getCorrespondingClass();
+
+        // export: the visible properties, in order
+        @SuppressWarnings("deprecation")
+        final List<? extends ObjectAssociation> properties = objectSpec.getAssociations(VISIBLE_PROPERTIES);
+        final ImmutableList.Builder<Column> columns = ImmutableList.builder();
+        for (final ObjectAssociation property : properties) {
+            columns.add(new Column((OneToOneAssociation) property, cls));
+        }
+        this.columns = columns.build();
+
+        // import: any property, matched by either its name or its id, ignoring case
+        this.columnByHeader = Maps.newHashMap();
+        this.ambiguousPropertyIdsByHeader = Maps.newHashMap();
+        final List<ObjectAssociation> associations = objectSpec.getAssociations(Contributed.INCLUDED);
+        for (final ObjectAssociation association : associations) {
+            if (association instanceof OneToOneAssociation) {
+                final Column column = new Column((OneToOneAssociation) association, cls);
+                index(association.getName(), column);
+                index(association.getId(), column);
+            }
+        }
+
+        this.fingerprint = fingerprintOf(columnByHeader, ambiguousPropertyIdsByHeader);
+
+        this.directlyPopulatableViewModel = isDirectlyPopulatableViewModel(objectSpec, cls, columnByHeader.values());
+        this.directlyPopulatablePlainObject = isDirectlyPopulatablePlainObject(objectSpec, cls);
+    }
+
+    /**
+     * A view model whose memento is derived from its properties (ie declared using <tt>@ViewModel</tt> or
+     * <tt>@DomainObject(nature=VIEW_MODEL)</tt>) holds nothing that the setters of those properties do not; so
+     * populating it through its setters yields the same object as a round trip through a template and its memento
+     * would.  That is not so if the view model has a lifecycle callback or <tt>@PostConstruct</tt> method, or any
+     * property left out of the memento or defaulted on the template.  Nor for any other kind of view model (eg one
+     * implementing {@link org.apache.isis.applib.ViewModel}), whose memento is whatever it chooses.
+     */
+    private static boolean isDirectlyPopulatableViewModel(
+            final ObjectSpecification objectSpec,
+            final Class<?> cls,
+            final Collection<Column> importedColumns) {
+        if(hasMethod(cls, "created")) {
+            return false;
+        }
+        final ViewModelFacet viewModelFacet = objectSpec.getFacet(ViewModelFacet.class);
+        if(!(viewModelFacet instanceof RecreatableObjectFacetDeclarativeInitializingAbstract)) {
+            return false;
+        }
+        if(hasPostConstructMethod(cls)) {
+            return false;
+        }
+        for (final Column column : importedColumns) {
+            if(column.getAssociation().isNotPersisted() && column.getSetter() != null) {
+                // not part of the memento
+                return false;
+            }
+        }
+        return !hasDefaults(objectSpec);
+    }
+
+    /**
+     * A plain (eg row handler) object is just returned as is, so could likewise be populated directly, but only by
+     * skipping {@link org.apache.isis.applib.services.factory.FactoryService#instantiate(Class) instantiation} by the
+     * framework; so it must not have a lifecycle callback, nor any property that would be defaulted on a template.
+     * Entities must always be created by the framework.
+     */
+    private static boolean isDirectlyPopulatablePlainObject(final ObjectSpecification objectSpec, final Class<?> cls) {
+        return objectSpec.getFacet(ViewModelFacet.class) == null
+                && !Persistable.class.isAssignableFrom(cls)
+                && !hasMethod(cls, "created")
+                && !hasDefaults(objectSpec);
+    }
+
+    private static boolean hasPostConstructMethod(final Class<?> cls) {
+        for (final Method method : cls.getMethods()) {
+            if(method.isAnnotationPresent(PostConstruct.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether any property would be defaulted on a template, whether from a <tt>defaultXxx()</tt> method or from its
+     * type.  As for {@link OneToOneAssociation#toDefault(org.apache.isis.core.metamodel.adapter.ObjectAdapter)},
+     * optional properties are never defaulted; nor are types whose default is <tt>null</tt>, or primitives (whose
+     * default is that of the field anyway).
+     */
+    private static boolean hasDefaults(final ObjectSpecification objectSpec) {
+        for (final OneToOneAssociation property : objectSpec.getProperties(Contributed.EXCLUDED)) {
+            final PropertyDefaultFacet defaultFacet = property.getFacet(PropertyDefaultFacet.class);
+            if(defaultFacet == null || defaultFacet.isNoop()) {
+                continue;
+            }
+            final MandatoryFacet mandatoryFacet = property.getFacet(MandatoryFacet.class);
+            if(mandatoryFacet != null && mandatoryFacet.isInvertedSemantics()) {
+                continue;
+            }
+            if(defaultFacet instanceof PropertyDefaultFacetDerivedFromDefaultedFacet) {
+                final ObjectSpecification typeSpec = property.getSpecification();
+                final DefaultedFacet defaultedFacet = typeSpec.getFacet(DefaultedFacet.class);
+                if(typeSpec.getCorrespondingClass().isPrimitive()
+                        || defaultedFacet == null || defaultedFacet.getDefault() == null) {
+                    continue;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Indexes the column by the header, unless some other property already matches it (in which case the header is
+     * ambiguous).
+     */
+    private void index(final String header, final Column column) {
+        if(header == null) {
+            return;
+        }
+        final String key = normalize(header);
+        final Column existing = columnByHeader.get(key);
+        if(existing == null) {
+            columnByHeader.put(key, column);
+            return;
+        }
+        if(existing.getAssociation() == column.getAssociation()) {
+            // eg the name and the id differ only in case
+            return;
+        }
+        Set<String> propertyIds = ambiguousPropertyIdsByHeader.get(key);
+        if(propertyIds == null) {
+            propertyIds = Sets.newTreeSet();
+            propertyIds.add(existing.getAssociation().getId());
+            ambiguousPropertyIdsByHeader.put(key, propertyIds);
+        }
+        propertyIds.add(column.getAssociation().getId());
+    }
+
+    /**
+     * A digest of how headers are matched to properties (and their types) on import.
+     */
+    private static String fingerprintOf(
+            final Map<String, Column> columnByHeader,
+            final Map<String, Set<String>> ambiguousPropertyIdsByHeader) {
+        final StringBuilder buf = new StringBuilder();
+        for (final Map.Entry<String, Column> entry : new TreeMap<>(columnByHeader).entrySet()) {
+            final Column column = entry.getValue();
+            buf.append(entry.getKey()).append('=')
+               .append(column.getAssociation().getId()).append(':').append(column.getType().getName()).append('\n');
+        }
+        for (final Map.Entry<String, Set<String>> entry : new TreeMap<>(ambiguousPropertyIdsByHeader).entrySet()) {
+            buf.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        return Hashing.sha256().hashString(buf, Charsets.UTF_8).toString();
+    }
+
+    private static String normalize(final String header) {
+        return header.toLowerCase(Locale.ROOT);
+    }
+
+    ObjectSpecification getObjectSpecification() {
+        return objectSpec;
+    }
+
+    /**
+     * Whether the class is a (declarative) view model that can be imported by instantiating it and calling the
+     * {@link Column#getSetter() setters} of (all of) the imported columns directly, without any
+     * {@link org.apache.isis.core.metamodel.adapter.ObjectAdapter}s, and with the same result as if it were imported
+     * through a template.
+     */
+    boolean isDirectlyPopulatableViewModel() {
+        return directlyPopulatableViewModel;
+    }
+
+    /**
+     * Whether the class is a plain (neither view model nor persistable) object that can be imported by instantiating
+     * it and calling the {@link Column#getSetter() setters} of (all of) the imported columns directly, if
+     * {@link org.isisaddons.module.excel.dom.WorksheetSpec#withDirectPopulation() requested}.
+     */
+    boolean isDirectlyPopulatablePlainObject() {
+        return directlyPopulatablePlainObject;
+    }
+
+    /**
+     * Changes whenever the way in which the columns of a sheet are imported changes, eg if a property is added or
+     * renamed, or its type changed.
+     */
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * The columns to export.
+     */
+    List<Column> getColumns() {
+        return columns;
+    }
+
+    /**
+     * The column to import into for a header, matched against the property's name or id (ignoring case), or
+     * <tt>null</tt> if none.
+     *
+     * @throws ExcelService.Exception if the header matches more than one property.
+     */
+    Column getColumn(final String header) {
+        if(header == null) {
+            return null;
+        }
+        final String key = normalize(header);
+        final Set<String> ambiguousPropertyIds = ambiguousPropertyIdsByHeader.get(key);
+        if(ambiguousPropertyIds != null) {
+            throw new ExcelService.Exception(String.format(
+                    "Header '%s' is ambiguous for %s; it matches the name or id of each of the properties %s",
+                    header, objectSpec.getFullIdentifier(), ambiguousPropertyIds));
+        }
+        return columnByHeader.get(key);
+    }
+
+    static boolean isBookmarkHeader(final String header) {
+        return header != null && normalize(header).endsWith(BOOKMARK_HEADER_SUFFIX);
+    }
+
+    /**
+     * The column whose bookmarks are held in the column with the specified (bookmark) header, or <tt>null</tt> if
+     * none.
+     */
+    Column getBookmarkedColumn(final String bookmarkHeader) {
+        return getColumn(bookmarkHeader.substring(0, bookmarkHeader.length() - BOOKMARK_HEADER_SUFFIX.length()));
+    }
+
+}
@@ -16,70 +16,159 @@
  */
 package org.isisaddons.module.excel.dom.util;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
 import com.google.common.base.Function;
+import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ForwardingIterator;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.CreationHelper;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.apache.isis.applib.DomainObjectContainer;
-import org.apache.isis.applib.annotation.Where;
-import org.apache.isis.applib.filter.Filter;
-import org.apache.isis.applib.filter.Filters;
 import org.apache.isis.applib.services.bookmark.BookmarkService;
 import org.apache.isis.applib.util.ObjectContracts;
+import org.apache.isis.core.commons.authentication.AuthenticationSession;
 import org.apache.isis.core.metamodel.adapter.ObjectAdapter;
 import org.apache.isis.core.metamodel.adapter.mgr.AdapterManager;
-import org.apache.isis.core.metamodel.consent.InteractionInitiatedBy;
-import org.apache.isis.core.metamodel.facets.object.viewmodel.ViewModelFacet;
-import org.apache.isis.core.metamodel.spec.ObjectSpecification;
-import org.apache.isis.core.metamodel.spec.feature.Contributed;
-import org.apache.isis.core.metamodel.spec.feature.ObjectAssociation;
 import org.apache.isis.core.metamodel.spec.feature.OneToOneAssociation;
 import org.apache.isis.core.metamodel.specloader.SpecificationLoader;
+import org.apache.isis.core.runtime.system.session.IsisSession;
+import org.apache.isis.core.runtime.system.session.IsisSessionFactory;
 
 import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.ImportIterator;
+import org.isisaddons.module.excel.dom.ImportSummary;
+import org.isisaddons.module.excel.dom.RowConsumer;
 import org.isisaddons.module.excel.dom.WorksheetContent;
 import org.isisaddons.module.excel.dom.WorksheetSpec;
 
 class ExcelConverter {
 
-    private static final String XLSX_SUFFIX = ".xlsx";
-
-    @SuppressWarnings({ "unchecked", "deprecation" })
-    private static final Filter<ObjectAssociation> VISIBLE_PROPERTIES = Filters.and(
-            ObjectAssociation.Filters.PROPERTIES,
-            ObjectAssociation.Filters.staticallyVisible(Where.STANDALONE_TABLES));
+    private static final Logger LOG = LoggerFactory.getLogger(ExcelConverter.class);
 
+    /**
+     * Allocates rows, creating the sheet (with its header row) on demand.  If a sheet fills up then either rolls
+     * over onto a further sheet - "Sheet (2)", "Sheet (3)" and so on, with the header row repeated - or fails.
+     */
     static class RowFactory {
-        private final Sheet sheet;
+
+        static final int MAX_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+
+        private final Workbook workbook;
+        private final String sheetName;
+        private final List<String> headers;
+        private final int numVisibleColumns;
+        private final boolean rollover;
+        private final int maxRows;
+
+        private final List<String> sheetNames = Lists.newArrayList();
+
+        private Sheet sheet;
+        private int sheetNum;
         private int rowNum;
 
-        RowFactory(final Sheet sheet) {
-            this.sheet = sheet;
+        RowFactory(
+                final Workbook workbook,
+                final String sheetName,
+                final List<String> headers,
+                final int numVisibleColumns,
+                final boolean rollover,
+                final int maxRows) {
+            this.workbook = workbook;
+            this.sheetName = sheetName;
+            this.headers = headers;
+            this.numVisibleColumns = numVisibleColumns;
+            this.rollover = rollover;
+            this.maxRows = maxRows;
+            newSheet();
         }
 
         public Row newRow() {
-            return sheet.createRow((short) rowNum++);
+            if(rowNum >= maxRows) {
+                if(!rollover) {
+                    throw new IllegalArgumentException(String.format(
+                            "Sheet '%s' cannot hold more than %d rows (use WorksheetSpec#withRollover() to continue onto further sheets)",
+                            sheetName, maxRows));
+                }
+                newSheet();
+            }
+            return sheet.createRow(rowNum++);
+        }
+
+        /**
+         * The names of the sheets created, in order (more than one only if rolled over).
+         */
+        List<String> getSheetNames() {
+            return sheetNames;
+        }
+
+        private void newSheet() {
+            // creating a sheet modifies the workbook's package, so guard against sheets being generated in parallel
+            synchronized (workbook) {
+                sheetNum++;
+                sheet = workbook.createSheet(sheetNum == 1 ? sheetName : nextRolloverSheetName());
+                sheetNames.add(sheet.getSheetName());
+            }
+            rowNum = 0;
+
+            // header row
+            final Row headerRow = sheet.createRow(rowNum++);
+            int i = 0;
+            for (final String header : headers) {
+                final Cell cell = headerRow.createCell(i++);
+                cell.setCellValue(header);
+            }
+            for (int hidden = numVisibleColumns; hidden < headers.size(); hidden++) {
+                sheet.setColumnHidden(hidden, true);
+            }
+
+            // freeze panes
+            sheet.createFreezePane(0, 1);
+        }
+
+        private String nextRolloverSheetName() {
+            while(true) {
+                final String suffix = " (" + sheetNum + ")";
+                final String base = sheetName.length() + suffix.length() > 30
+                        ? sheetName.substring(0, 30 - suffix.length())
+                        : sheetName;
+                final String candidate = base + suffix;
+                if(workbook.getSheet(candidate) == null) {
+                    return candidate;
+                }
+                sheetNum++;
+            }
         }
     }
 
@@ -88,19 +177,33 @@ class ExcelConverter {
     private final SpecificationLoader specificationLoader;
     private final AdapterManager adapterManager;
     private final BookmarkService bookmarkService;
+    private final IsisSessionFactory isisSessionFactory;
+
+    /**
+     * The number of rows (including the header row) of each sheet; only ever lowered by tests, so that rollover can
+     * be exercised without exporting a million rows.
+     */
+    int maxRowsPerSheet = RowFactory.MAX_ROWS;
 
     ExcelConverter(
             final SpecificationLoader specificationLoader,
             final AdapterManager adapterManager,
-            final BookmarkService bookmarkService) {
+            final BookmarkService bookmarkService,
+            final IsisSessionFactory isisSessionFactory) {
         this.specificationLoader = specificationLoader;
         this.adapterManager = adapterManager;
         this.bookmarkService = bookmarkService;
+        this.isisSessionFactory = isisSessionFactory;
     }
 
     // //////////////////////////////////////
 
-    File appendSheet(final List<WorksheetContent> worksheetContents) throws IOException {
+    /**
+     * Writes the workbook to the provided stream, which is flushed but left open.
+     */
+    void appendSheet(
+            final List<WorksheetContent> worksheetContents,
+            final OutputStream outputStream) throws IOException {
         final ImmutableSet<String> worksheetNames = FluentIterable.from(worksheetContents)
                 .transform(new Function<WorksheetContent, String>() {
                     @Nullable @Override public String apply(@Nullable final WorksheetContent worksheetContent) {
@@ -118,60 +221,244 @@ class ExcelConverter {
             }
         }
 
-        final XSSFWorkbook workbook = new XSSFWorkbook();
-        final File tempFile =
-                File.createTempFile(ExcelConverter.class.getName(), UUID.randomUUID().toString() + XLSX_SUFFIX);
-        final FileOutputStream fos = new FileOutputStream(tempFile);
+        final Workbook workbook = newWorkbook(worksheetContents);
+        final ReferenceCache referenceCache = new ReferenceCache();
+        try {
+            appendSheets(workbook, worksheetContents, referenceCache);
+            if(LOG.isDebugEnabled()) {
+                LOG.debug("Titles and bookmarks of referenced objects: {}", referenceCache);
+            }
+            // POI closes the stream it writes to, so shield the caller's stream from that
+            workbook.write(new NonClosingOutputStream(outputStream));
+        } finally {
+            dispose(workbook);
+        }
+    }
+
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(final OutputStream out) {
+            super(out);
+        }
 
-        for (WorksheetContent worksheetContent : worksheetContents) {
-            final WorksheetSpec spec = worksheetContent.getSpec();
-            appendSheet(workbook, worksheetContent.getDomainObjects(), spec.getCls(), spec.getSheetName());
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
         }
-        workbook.write(fos);
-        fos.close();
-        return tempFile;
     }
 
-    private void appendSheet(
-            final XSSFWorkbook workbook,
-            final List<?> domainObjects,
-            final Class<?> cls,
-            final String sheetName) throws IOException {
+    /**
+     * A streaming workbook (flushing rows to disk beyond a bounded window) if any of the sheets asks for it,
+     * otherwise a regular in-memory workbook.
+     */
+    private static Workbook newWorkbook(final List<WorksheetContent> worksheetContents) {
+        int rowAccessWindowSize = 0;
+        for (final WorksheetContent worksheetContent : worksheetContents) {
+            rowAccessWindowSize = Math.max(rowAccessWindowSize, worksheetContent.getSpec().getRowAccessWindowSize());
+        }
+        return rowAccessWindowSize > 0
+                ? new SXSSFWorkbook(rowAccessWindowSize)
+                : new XSSFWorkbook();
+    }
 
-        final ObjectSpecification objectSpec = specificationLoader.loadSpecification(cls);
+    /**
+     * Deletes the temporary files backing a streaming workbook.
+     */
+    private static void dispose(final Workbook workbook) {
+        if(workbook instanceof SXSSFWorkbook) {
+            ((SXSSFWorkbook) workbook).dispose();
+        }
+    }
 
-        final List<ObjectAdapter> adapters = Lists.transform(domainObjects, ObjectAdapter.Functions.adapterForUsing(adapterManager));
+    private void appendSheets(
+            final Workbook workbook,
+            final List<WorksheetContent> worksheetContents,
+            final ReferenceCache referenceCache) throws IOException {
+
+        // sheets are created up-front, in order, so that their order does not depend on how any parallel
+        // generation is scheduled
+        final List<SheetWriter> sheetWriters = Lists.newArrayList();
+        final List<SheetWriter> parallelSheetWriters = Lists.newArrayList();
+        for (final WorksheetContent worksheetContent : worksheetContents) {
+            final SheetWriter sheetWriter = newSheetWriter(workbook, worksheetContent, referenceCache);
+            sheetWriters.add(sheetWriter);
+            // objects obtained by the caller belong to the caller's session, so cannot be adapted in another thread;
+            // only those supplied a page at a time are queried within the session of the thread writing the sheet
+            if(worksheetContent.getSpec().isParallel() && worksheetContent.isPaged()) {
+                parallelSheetWriters.add(sheetWriter);
+            }
+        }
 
-        @SuppressWarnings("deprecation")
-        final List<? extends ObjectAssociation> propertyList = objectSpec.getAssociations(VISIBLE_PROPERTIES);
+        final IsisSession currentSession = isisSessionFactory.getCurrentSession();
+        if(parallelSheetWriters.size() < 2 || currentSession == null) {
+            for (final SheetWriter sheetWriter : sheetWriters) {
+                sheetWriter.writeRows(adapterManager);
+            }
+            return;
+        }
 
-        final Sheet sheet = ((Workbook) workbook).createSheet(sheetName);
+        final int numThreads = Math.min(parallelSheetWriters.size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        final List<Future<Void>> futures = Lists.newArrayList();
+        try {
+            final AuthenticationSession authenticationSession = currentSession.getAuthenticationSession();
+            for (final SheetWriter sheetWriter : parallelSheetWriters) {
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        return isisSessionFactory.doInSession(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                sheetWriter.writeRows(isisSessionFactory.getCurrentSession().getPersistenceSession());
+                                return null;
+                            }
+                        }, authenticationSession);
+                    }
+                }));
+            }
 
-        final ExcelConverter.RowFactory rowFactory = new RowFactory(sheet);
-        final Row headerRow = rowFactory.newRow();
+            // meanwhile, generate the remaining sheets in this thread
+            for (final SheetWriter sheetWriter : sheetWriters) {
+                if(!parallelSheetWriters.contains(sheetWriter)) {
+                    sheetWriter.writeRows(adapterManager);
+                }
+            }
 
-        // header row
-        int i = 0;
-        for (final ObjectAssociation property : propertyList) {
-            final Cell cell = headerRow.createCell((short) i++);
-            cell.setCellValue(property.getName());
+            for (final Future<Void> future : futures) {
+                await(future);
+            }
+        } finally {
+            // if any sheet failed then abandon the rest; either way, no sheet may still be being written to the
+            // workbook once this method returns
+            for (final Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            executorService.shutdownNow();
+            awaitTermination(executorService);
         }
 
-        final CellMarshaller cellMarshaller = newCellMarshaller(workbook);
+        // any sheets rolled over will have been created in whatever order the threads got to them
+        int position = 0;
+        for (final SheetWriter sheetWriter : sheetWriters) {
+            for (final String sheetName : sheetWriter.rowFactory.getSheetNames()) {
+                workbook.setSheetOrder(sheetName, position++);
+            }
+        }
+    }
 
-        // detail rows
-        for (final ObjectAdapter objectAdapter : adapters) {
-            final Row detailRow = rowFactory.newRow();
-            i = 0;
-            for (final ObjectAssociation oa : propertyList) {
-                final Cell cell = detailRow.createCell((short) i++);
-                final OneToOneAssociation otoa = (OneToOneAssociation) oa;
-                cellMarshaller.setCellValue(objectAdapter, otoa, cell);
+    private static void awaitTermination(final ExecutorService executorService) {
+        try {
+            while(!executorService.awaitTermination(1, TimeUnit.SECONDS)) {
+                // a sheet already being written runs to completion
             }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
+    }
+
+    private static void await(final Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ExcelService.Exception(ex);
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            Throwables.propagateIfPossible(cause, IOException.class);
+            throw new ExcelService.Exception(cause);
+        }
+    }
+
+    private SheetWriter newSheetWriter(
+            final Workbook workbook,
+            final WorksheetContent worksheetContent,
+            final ReferenceCache referenceCache) {
+
+        final WorksheetSpec spec = worksheetContent.getSpec();
+        final ColumnPlan columnPlan = ColumnPlan.of(spec.getCls(), specificationLoader);
+
+        final List<ColumnPlan.Column> columns = columnPlan.getColumns();
+        final List<String> headers = Lists.newArrayList();
+        for (final ColumnPlan.Column column : columns) {
+            headers.add(column.getName());
+        }
+
+        // if requested, the bookmarks of references go in hidden columns following the visible ones
+        final int[] bookmarkColumnIndices = new int[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            final ColumnPlan.Column column = columns.get(i);
+            if(spec.isBookmarkColumns() && column.isBookmarked()) {
+                bookmarkColumnIndices[i] = headers.size();
+                headers.add(column.getBookmarkHeader());
+            } else {
+                bookmarkColumnIndices[i] = -1;
+            }
+        }
+
+        final ExcelConverter.RowFactory rowFactory =
+                new RowFactory(
+                        workbook, spec.getSheetName(), headers, columns.size(), spec.isRollover(), maxRowsPerSheet);
+
+        final CellMarshaller cellMarshaller = newCellMarshaller(workbook, referenceCache);
 
-        // freeze panes
-        sheet.createFreezePane(0, 1);
+        return new SheetWriter(
+                worksheetContent.getDomainObjectsIterable(), columns, bookmarkColumnIndices, rowFactory, cellMarshaller);
+    }
+
+    /**
+     * Writes the detail rows of a single sheet (already created, along with its header row).
+     *
+     * <p>
+     *     The {@link AdapterManager} is provided by the caller because, when sheets are generated in parallel, each
+     *     sheet is written in its own Isis session.
+     * </p>
+     */
+    private static class SheetWriter {
+
+        private final Iterable<?> domainObjects;
+        private final List<ColumnPlan.Column> columns;
+        private final int[] bookmarkColumnIndices;
+        private final RowFactory rowFactory;
+        private final CellMarshaller cellMarshaller;
+
+        SheetWriter(
+                final Iterable<?> domainObjects,
+                final List<ColumnPlan.Column> columns,
+                final int[] bookmarkColumnIndices,
+                final RowFactory rowFactory,
+                final CellMarshaller cellMarshaller) {
+            this.domainObjects = domainObjects;
+            this.columns = columns;
+            this.bookmarkColumnIndices = bookmarkColumnIndices;
+            this.rowFactory = rowFactory;
+            this.cellMarshaller = cellMarshaller;
+        }
+
+        void writeRows(final AdapterManager adapterManager) {
+
+            // detail rows
+            for (final Object domainObject : domainObjects) {
+                final Row detailRow = rowFactory.newRow();
+                // only if any of the columns needs it
+                ObjectAdapter objectAdapter = null;
+                for (int i = 0; i < columns.size(); i++) {
+                    final Cell cell = detailRow.createCell(i);
+                    final ColumnPlan.Column column = columns.get(i);
+                    if(column.getGetter() != null) {
+                        cellMarshaller.setCellValue(domainObject, column, cell);
+                        continue;
+                    }
+                    if(objectAdapter == null) {
+                        objectAdapter = adapterManager.adapterFor(domainObject);
+                    }
+                    cellMarshaller.setCellValue(objectAdapter, column, cell, bookmarkColumnIndices[i]);
+                }
+            }
+        }
     }
 
     List<List<?>> fromBytes(
@@ -179,112 +466,292 @@ class ExcelConverter {
             final byte[] bs,
             final DomainObjectContainer container) throws IOException, InvalidFormatException {
 
-        final List<List<?>> listOfLists = Lists.newArrayList();
-        for (WorksheetSpec worksheetSpec : worksheetSpecs) {
-            final Class<?> cls = worksheetSpec.getCls();
-            final String sheetName = worksheetSpec.getSheetName();
-            listOfLists.add(fromBytes(cls, sheetName, bs, container));
+        // the workbook is opened (parsed) just once, and then each sheet read in turn
+        final BookmarkResolver bookmarkResolver = new BookmarkResolver(bookmarkService);
+        try (WorkbookReader workbookReader = openWorkbook(bs, worksheetSpecs)) {
+            final List<List<?>> listOfLists = Lists.newArrayList();
+            for (WorksheetSpec worksheetSpec : worksheetSpecs) {
+                listOfLists.add(fromWorkbook(worksheetSpec, workbookReader, bookmarkResolver, container));
+            }
+            logStatistics(bookmarkResolver);
+            return listOfLists;
+        }
+    }
+
+    /**
+     * As for export, if any of the sheets is to be streamed then the whole workbook is.
+     */
+    private static boolean isStreaming(final List<WorksheetSpec> worksheetSpecs) {
+        for (final WorksheetSpec worksheetSpec : worksheetSpecs) {
+            if(worksheetSpec.isStreaming()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Similarly, if any of the sheets is to be cached, then the workbook is read through the cache; there is just
+     * the one cache for the workbook, so all such sheets must specify the same directory.
+     */
+    private static File rowCacheDirectoryOf(final List<WorksheetSpec> worksheetSpecs) {
+        File rowCacheDirectory = null;
+        for (final WorksheetSpec worksheetSpec : worksheetSpecs) {
+            final File directory = worksheetSpec.getRowCacheDirectory();
+            if(directory == null) {
+                continue;
+            }
+            if(rowCacheDirectory == null) {
+                rowCacheDirectory = directory;
+            } else if(!rowCacheDirectory.getAbsoluteFile().equals(directory.getAbsoluteFile())) {
+                throw new IllegalArgumentException(String.format(
+                        "Sheets read from the same workbook cannot be cached in different directories ('%s' and '%s')",
+                        rowCacheDirectory, directory));
+            }
         }
-        return listOfLists;
+        return rowCacheDirectory;
     }
 
-    <T> List<T> fromBytes(
-            final Class<T> cls,
-            final String sheetName,
+    private static WorkbookReader openWorkbook(
             final byte[] bs,
-            final DomainObjectContainer container) throws IOException, InvalidFormatException {
+            final List<WorksheetSpec> worksheetSpecs) throws IOException, InvalidFormatException {
+        return openWorkbook(bs, worksheetSpecs, null);
+    }
 
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(bs)) {
-            final Workbook wb = org.apache.poi.ss.usermodel.WorkbookFactory.create(bais);
-            return fromWorkbook(cls, sheetName, wb, container);
+    /**
+     * @param digest - the (SHA-256) digest of the workbook, if already known; otherwise it is computed, but only if
+     *               any of the sheets is to be cached.
+     */
+    private static WorkbookReader openWorkbook(
+            final byte[] bs,
+            final List<WorksheetSpec> worksheetSpecs,
+            final String digest) throws IOException, InvalidFormatException {
+        final boolean streaming = isStreaming(worksheetSpecs);
+        final File rowCacheDirectory = rowCacheDirectoryOf(worksheetSpecs);
+        if(rowCacheDirectory == null) {
+            return openWorkbook(bs, streaming);
         }
+        final String workbookDigest = digest != null ? digest : Hashing.sha256().hashBytes(bs).toString();
+        return new CachingWorkbookReader(rowCacheDirectory, workbookDigest, new CachingWorkbookReader.Opener() {
+            @Override
+            public WorkbookReader open() throws IOException, InvalidFormatException {
+                return openWorkbook(bs, streaming);
+            }
+        });
+    }
+
+    /**
+     * Streams the workbook if requested (and if an .xlsx), otherwise loads it fully into memory.
+     */
+    private static WorkbookReader openWorkbook(
+            final byte[] bs,
+            final boolean streaming) throws IOException, InvalidFormatException {
+        return streaming && StreamingWorkbookReader.isSupported(bs)
+                ? StreamingWorkbookReader.open(bs)
+                : UserModelWorkbookReader.open(bs);
     }
 
     private <T> List<T> fromWorkbook(
-            final Class<T> cls,
-            final String sheetName,
-            final Workbook workbook,
-            final DomainObjectContainer container) {
-        final List<T> importedItems = Lists.newArrayList();
-
-        final CellMarshaller cellMarshaller = this.newCellMarshaller(workbook);
-
-        final Sheet sheet = lookupSheet(cls, sheetName, workbook);
-
-        boolean header = true;
-        final Map<Integer, Property> propertyByColumn = Maps.newHashMap();
-
-        final ObjectSpecification objectSpec = specificationLoader.loadSpecification(cls);
-        final ViewModelFacet viewModelFacet = objectSpec.getFacet(ViewModelFacet.class);
-
-        for (final Row row : sheet) {
-            if (header) {
-                for (final Cell cell : row) {
-                    if (cell.getCellType() != Cell.CELL_TYPE_BLANK) {
-                        final int columnIndex = cell.getColumnIndex();
-                        final String propertyName = cellMarshaller.getStringCellValue(cell);
-                        final OneToOneAssociation property = getAssociation(objectSpec, propertyName);
-                        if (property != null) {
-                            final Class<?> propertyType = property.getSpecification().getCorrespondingClass();
-                            propertyByColumn.put(columnIndex, new Property(propertyName, property, propertyType));
-                        }
-                    }
-                }
-                header = false;
-            } else {
-                // detail
-                try {
+            final WorksheetSpec worksheetSpec,
+            final WorkbookReader workbookReader,
+            final BookmarkResolver bookmarkResolver,
+            final DomainObjectContainer container) throws IOException, InvalidFormatException {
+        try (SheetImporter<T> sheetImporter =
+                     this.<T>newSheetImporter(worksheetSpec, workbookReader, bookmarkResolver, container)) {
+            return Lists.newArrayList(sheetImporter);
+        }
+    }
 
-                    // Let's require at least one column to be not null for detecting a blank row.
-                    // Excel can have physical rows with cells empty that it seem do not existent for the user.
-                    ObjectAdapter templateAdapter = null;
-                    T imported = null;
-                    for (final Cell cell : row) {
-                        final int columnIndex = cell.getColumnIndex();
-                        final Property property = propertyByColumn.get(columnIndex);
-                        if (property != null) {
-                            final OneToOneAssociation otoa = property.getOneToOneAssociation();
-                            final Object value = cellMarshaller.getCellValue(cell, otoa);
-                            if (value != null) {
-                                if (imported == null) {
-                                    // copy the row into a new object
-                                    imported = container.newTransientInstance(cls);
-                                    templateAdapter = this.adapterManager.adapterFor(imported);
-                                }
-                                final ObjectAdapter valueAdapter = this.adapterManager.adapterFor(value);
-                                otoa.set(templateAdapter, valueAdapter, InteractionInitiatedBy.USER);
-                            }
-                        } else {
-                            // not expected; just ignore.
-                        }
-                    }
+    private static void logStatistics(final BookmarkResolver bookmarkResolver) {
+        if(LOG.isDebugEnabled()) {
+            LOG.debug("Lookups of referenced objects: {}", bookmarkResolver);
+        }
+    }
 
-                    if (imported != null) {
-                        if (viewModelFacet != null) {
-                            // if there is a view model, then use the imported object as a template
-                            // in order to create a regular view model.
-                            final String memento = viewModelFacet.memento(imported);
-                            final T viewModel = container.newViewModelInstance(cls, memento);
-                            importedItems.add(viewModel);
-                        } else {
-                            // else, just return the imported items as simple transient instances.
-                            importedItems.add(imported);
-                        }
-                    }
+    /**
+     * Hands the domain objects to the consumer in batches as they are converted, rather than accumulating them all.
+     */
+    <T> ImportSummary fromBytes(
+            final WorksheetSpec worksheetSpec,
+            final byte[] bs,
+            final DomainObjectContainer container,
+            final RowConsumer<T> rowConsumer,
+            final int batchSize) throws IOException, InvalidFormatException {
+
+        final BookmarkResolver bookmarkResolver = new BookmarkResolver(bookmarkService);
+        try (WorkbookReader workbookReader = openWorkbook(bs, Collections.singletonList(worksheetSpec))) {
+            final ImportSummary importSummary =
+                    fromWorkbook(worksheetSpec, workbookReader, bookmarkResolver, container, rowConsumer, batchSize);
+            logStatistics(bookmarkResolver);
+            return importSummary;
+        }
+    }
+
+    /**
+     * As {@link #fromBytes(WorksheetSpec, byte[], DomainObjectContainer, RowConsumer, int)}, but for each of the
+     * sheets in turn, the workbook being opened (parsed) just once.
+     *
+     * @param digest - the (SHA-256) digest of the workbook, if already known (used only if the rows are cached).
+     */
+    @SuppressWarnings("unchecked")
+    List<ImportSummary> fromBytes(
+            final List<WorksheetSpec> worksheetSpecs,
+            final byte[] bs,
+            final String digest,
+            final DomainObjectContainer container,
+            final List<? extends RowConsumer<?>> rowConsumers,
+            final int batchSize) throws IOException, InvalidFormatException {
+
+        final BookmarkResolver bookmarkResolver = new BookmarkResolver(bookmarkService);
+        try (WorkbookReader workbookReader = openWorkbook(bs, worksheetSpecs, digest)) {
+            final List<ImportSummary> importSummaries = Lists.newArrayList();
+            for (int i = 0; i < worksheetSpecs.size(); i++) {
+                final RowConsumer<Object> rowConsumer = (RowConsumer<Object>) rowConsumers.get(i);
+                importSummaries.add(fromWorkbook(
+                        worksheetSpecs.get(i), workbookReader, bookmarkResolver, container, rowConsumer, batchSize));
+            }
+            logStatistics(bookmarkResolver);
+            return importSummaries;
+        }
+    }
 
-                } catch (final Exception e) {
-                    throw new ExcelService.Exception(String.format("Error processing Excel row nr. %d. Message: %s", row.getRowNum(), e.getMessage()), e);
+    private <T> ImportSummary fromWorkbook(
+            final WorksheetSpec worksheetSpec,
+            final WorkbookReader workbookReader,
+            final BookmarkResolver bookmarkResolver,
+            final DomainObjectContainer container,
+            final RowConsumer<T> rowConsumer,
+            final int batchSize) throws IOException, InvalidFormatException {
+
+        try (SheetImporter<T> sheetImporter = this.<T>newSheetImporter(
+                     worksheetSpec, workbookReader, bookmarkResolver, container)) {
+
+            int numImported = 0;
+            int numBatches = 0;
+            List<T> batch = Lists.newArrayList();
+            while (sheetImporter.hasNext()) {
+                batch.add(sheetImporter.next());
+                if (batch.size() == batchSize) {
+                    rowConsumer.consume(batch);
+                    numImported += batch.size();
+                    numBatches++;
+                    batch = Lists.newArrayList();
                 }
             }
+            if (!batch.isEmpty()) {
+                rowConsumer.consume(batch);
+                numImported += batch.size();
+                numBatches++;
+            }
+            return new ImportSummary(sheetImporter.getSheetName(), sheetImporter.getNumRows(), numImported, numBatches);
+        }
+    }
+
+    /**
+     * Reads and converts each row only as the returned iterator is advanced; the workbook is released once the
+     * iterator is closed (or exhausted).
+     */
+    <T> ImportIterator<T> iteratorFromBytes(
+            final WorksheetSpec worksheetSpec,
+            final byte[] bs,
+            final DomainObjectContainer container) throws IOException, InvalidFormatException {
+
+        final WorkbookReader workbookReader = openWorkbook(bs, Collections.singletonList(worksheetSpec));
+        try {
+            final SheetImporter<T> sheetImporter = this.<T>newSheetImporter(
+                    worksheetSpec, workbookReader, new BookmarkResolver(bookmarkService), container);
+            return new SheetImportIterator<>(sheetImporter, workbookReader);
+        } catch (final IOException | InvalidFormatException | RuntimeException ex) {
+            workbookReader.close();
+            throw ex;
+        }
+    }
+
+    private static class SheetImportIterator<T> extends ForwardingIterator<T> implements ImportIterator<T> {
+
+        private final SheetImporter<T> sheetImporter;
+        private final WorkbookReader workbookReader;
+        private boolean closed;
+
+        SheetImportIterator(final SheetImporter<T> sheetImporter, final WorkbookReader workbookReader) {
+            this.sheetImporter = sheetImporter;
+            this.workbookReader = workbookReader;
+        }
+
+        @Override
+        protected Iterator<T> delegate() {
+            return sheetImporter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(closed) {
+                return false;
+            }
+            final boolean hasNext = super.hasNext();
+            if(!hasNext) {
+                close();
+            }
+            return hasNext;
+        }
 
+        @Override
+        public T next() {
+            if(closed) {
+                throw new NoSuchElementException();
+            }
+            return super.next();
+        }
 
+        @Override
+        public void close() {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            try {
+                try {
+                    sheetImporter.close();
+                } finally {
+                    workbookReader.close();
+                }
+            } catch (final IOException ex) {
+                throw new ExcelService.Exception(ex);
+            }
         }
-        return importedItems;
     }
 
-    protected <T> Sheet lookupSheet(final Class<T> cls, final String sheetName, final Workbook workbook) {
+    private <T> SheetImporter<T> newSheetImporter(
+            final WorksheetSpec worksheetSpec,
+            final WorkbookReader workbookReader,
+            final BookmarkResolver bookmarkResolver,
+            final DomainObjectContainer container) throws IOException, InvalidFormatException {
+        @SuppressWarnings("unchecked")
+        final Class<T> cls = (Class<T>) worksheetSpec.getCls();
+        final String actualSheetName = lookupSheetName(cls, worksheetSpec.getSheetName(), workbookReader.getSheetNames());
+        final CellMarshaller cellMarshaller =
+                new CellMarshaller(bookmarkService, bookmarkResolver, workbookReader.isDate1904());
+        final ColumnPlan columnPlan = ColumnPlan.of(cls, specificationLoader);
+        final SheetReader sheetReader;
+        if(worksheetSpec.getRowCacheDirectory() != null && workbookReader instanceof CachingWorkbookReader) {
+            final CachingWorkbookReader cachingWorkbookReader = (CachingWorkbookReader) workbookReader;
+            sheetReader = cachingWorkbookReader.openSheet(actualSheetName, cls, columnPlan.getFingerprint());
+        } else {
+            sheetReader = workbookReader.openSheet(actualSheetName);
+        }
+        try {
+            return new SheetImporter<>(
+                    worksheetSpec, actualSheetName, sheetReader, columnPlan, cellMarshaller, adapterManager,
+                    isisSessionFactory.getServicesInjector(), container);
+        } catch (final RuntimeException ex) {
+            sheetReader.close();
+            throw ex;
+        }
+    }
+
+    protected <T> String lookupSheetName(final Class<T> cls, final String sheetName, final List<String> sheetNamesAvailable) {
         final List<String> sheetNames = determineCandidateSheetNames(sheetName, cls);
-        return lookupSheet(workbook, sheetNames);
+        return lookupSheetName(sheetNamesAvailable, sheetNames);
     }
 
     private static <T> List<String> determineCandidateSheetNames(final String sheetName, final Class<T> cls) {
@@ -299,43 +766,39 @@ class ExcelConverter {
         return names;
     }
 
-    protected Sheet lookupSheet(
-            final Workbook wb,
+    /**
+     * As per {@link Workbook#getSheet(String)}, sheet names are matched ignoring case.
+     */
+    protected String lookupSheetName(
+            final List<String> sheetNamesAvailable,
             final List<String> sheetNames) {
         for (String sheetName : sheetNames) {
-            final Sheet sheet = wb.getSheet(sheetName);
-            if(sheet != null) {
-                return sheet;
-            }
-        }
-        throw new IllegalArgumentException(String.format("Could not locate sheet named any of: '%s'", sheetNames));
-    }
-
-    private static OneToOneAssociation getAssociation(final ObjectSpecification objectSpec, final String propertyNameOrId) {
-        final List<ObjectAssociation> associations = objectSpec.getAssociations(Contributed.INCLUDED);
-        for (final ObjectAssociation association : associations) {
-            if (association instanceof OneToOneAssociation) {
-                if (propertyNameOrId.equalsIgnoreCase(association.getName())) {
-                    return (OneToOneAssociation) association;
-                }
-                if (propertyNameOrId.equalsIgnoreCase(association.getId())) {
-                    return (OneToOneAssociation) association;
+            for (final String sheetNameAvailable : sheetNamesAvailable) {
+                if(sheetNameAvailable.equalsIgnoreCase(sheetName)) {
+                    return sheetNameAvailable;
                 }
             }
         }
-        return null;
+        throw new IllegalArgumentException(String.format("Could not locate sheet named any of: '%s'", sheetNames));
     }
 
     static class Property {
         private final String name;
         private final Class<?> type;
         private final OneToOneAssociation property;
+        private final CellMarshaller.ValueReader valueReader;
+        private final MethodHandle setter;
+        private final int columnIndex;
+        private int bookmarkColumnIndex = -1;
         private Object currentValue;
 
-        public Property(final String name, final OneToOneAssociation property, final Class<?> type) {
+        public Property(final String name, final ColumnPlan.Column column, final int columnIndex) {
             this.name = name;
-            this.property = property;
-            this.type = type;
+            this.property = column.getAssociation();
+            this.type = column.getType();
+            this.valueReader = column.getValueReader();
+            this.setter = column.getSetter();
+            this.columnIndex = columnIndex;
         }
 
         public String getName() {
@@ -350,6 +813,39 @@ class ExcelConverter {
             return type;
         }
 
+        /**
+         * Converts the raw values of the column, resolved once from the type of the property.
+         */
+        CellMarshaller.ValueReader getValueReader() {
+            return valueReader;
+        }
+
+        /**
+         * The setter to populate the property directly, or <tt>null</tt> if it can only be set through the metamodel.
+         */
+        MethodHandle getSetter() {
+            return setter;
+        }
+
+        /**
+         * The index of the (visible) column, or -1 if there is only a bookmark column.
+         */
+        public int getColumnIndex() {
+            return columnIndex;
+        }
+
+        /**
+         * The index of the (hidden) column holding the bookmarks of this reference property, or -1 if the
+         * bookmarks are held as comments.
+         */
+        public int getBookmarkColumnIndex() {
+            return bookmarkColumnIndex;
+        }
+
+        public void setBookmarkColumnIndex(final int bookmarkColumnIndex) {
+            this.bookmarkColumnIndex = bookmarkColumnIndex;
+        }
+
         public Object getCurrentValue() {
             return currentValue;
         }
@@ -374,8 +870,12 @@ class ExcelConverter {
     // //////////////////////////////////////
 
     protected CellMarshaller newCellMarshaller(final Workbook wb) {
+        return newCellMarshaller(wb, new ReferenceCache());
+    }
+
+    protected CellMarshaller newCellMarshaller(final Workbook wb, final ReferenceCache referenceCache) {
         final CellStyle dateCellStyle = createDateFormatCellStyle(wb);
-        final CellMarshaller cellMarshaller = new CellMarshaller(bookmarkService, dateCellStyle);
+        final CellMarshaller cellMarshaller = new CellMarshaller(bookmarkService, dateCellStyle, referenceCache);
         return cellMarshaller;
     }
 
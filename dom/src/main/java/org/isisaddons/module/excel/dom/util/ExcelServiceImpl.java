@@ -16,8 +16,10 @@
  */
 package org.isisaddons.module.excel.dom.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.List;
 
@@ -32,14 +34,14 @@ import org.apache.isis.core.runtime.system.persistence.PersistenceSession;
 import org.apache.isis.core.runtime.system.session.IsisSessionFactory;
 
 import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.ImportIterator;
+import org.isisaddons.module.excel.dom.ImportSummary;
+import org.isisaddons.module.excel.dom.RowConsumer;
 import org.isisaddons.module.excel.dom.WorksheetContent;
 import org.isisaddons.module.excel.dom.WorksheetSpec;
 
 public class ExcelServiceImpl {
 
-    private final ExcelFileBlobConverter excelFileBlobConverter = new ExcelFileBlobConverter();
-
-
     /**
      * Creates a Blob holding a single-sheet spreadsheet of the domain objects.  The sheet name is derived from the
      * class name.
@@ -86,9 +88,31 @@ public class ExcelServiceImpl {
      */
     @Programmatic
     public Blob toExcel(final List<WorksheetContent> worksheetContents, final String fileName) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        toExcel(worksheetContents, baos);
+        return new Blob(fileName, ExcelService.XSLX_MIME_TYPE, baos.toByteArray());
+    }
+
+    /**
+     * As {@link #toExcel(WorksheetContent, String)}, but writing the spreadsheet directly to the provided stream
+     * (eg an HTTP response, or a file) rather than returning a {@link Blob}.
+     *
+     * <p>
+     *     The stream is flushed but not closed.
+     * </p>
+     */
+    @Programmatic
+    public void toExcel(final WorksheetContent worksheetContent, final OutputStream outputStream) {
+        toExcel(Collections.singletonList(worksheetContent), outputStream);
+    }
+
+    /**
+     * As {@link #toExcel(WorksheetContent, OutputStream)}, but with multiple sheets.
+     */
+    @Programmatic
+    public void toExcel(final List<WorksheetContent> worksheetContents, final OutputStream outputStream) {
         try {
-            final File file = newExcelConverter().appendSheet(worksheetContents);
-            return excelFileBlobConverter.toBlob(fileName, file);
+            newExcelConverter().appendSheet(worksheetContents, outputStream);
         } catch (final IOException ex) {
             throw new ExcelService.Exception(ex);
         }
@@ -155,8 +179,92 @@ public class ExcelServiceImpl {
         }
     }
 
+    /**
+     * As {@link #fromExcel(Blob, WorksheetSpec)}, but handing the domain objects to the provided {@link RowConsumer}
+     * in batches while the sheet is still being read (rather than returning them all in a single list).
+     *
+     * <p>
+     *     Combine with {@link WorksheetSpec#withStreaming()} so that neither the workbook nor the imported domain
+     *     objects need be held in memory in their entirety.
+     * </p>
+     *
+     * @param batchSize - the maximum number of domain objects to hand to the consumer in each call (the last batch
+     *                  may be smaller).
+     */
+    @Programmatic
+    public <T> ImportSummary fromExcel(
+            final Blob excelBlob,
+            final WorksheetSpec worksheetSpec,
+            final RowConsumer<T> rowConsumer,
+            final int batchSize) throws ExcelService.Exception {
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        try {
+            return newExcelConverter().fromBytes(worksheetSpec, excelBlob.getBytes(), container, rowConsumer, batchSize);
+        } catch (final IOException | InvalidFormatException e) {
+            throw new ExcelService.Exception(e);
+        }
+    }
+
+    /**
+     * As {@link #fromExcel(Blob, WorksheetSpec, RowConsumer, int)}, but reading multiple sheets in turn (the
+     * workbook being parsed only once), the domain objects of each being handed to the corresponding
+     * {@link RowConsumer}.
+     */
+    @Programmatic
+    public List<ImportSummary> fromExcel(
+            final Blob excelBlob,
+            final List<WorksheetSpec> worksheetSpecs,
+            final List<? extends RowConsumer<?>> rowConsumers,
+            final int batchSize) throws ExcelService.Exception {
+        return fromExcel(excelBlob, null, worksheetSpecs, rowConsumers, batchSize);
+    }
+
+    /**
+     * As {@link #fromExcel(Blob, List, List, int)}, where the (SHA-256) digest of the workbook is already known to
+     * the caller, so that any {@link WorksheetSpec#withRowCache(File) row cache} need not compute it again.
+     *
+     * @param digest - the hex-encoded digest of the bytes of the blob, or <tt>null</tt> if not known.
+     */
+    @Programmatic
+    public List<ImportSummary> fromExcel(
+            final Blob excelBlob,
+            final String digest,
+            final List<WorksheetSpec> worksheetSpecs,
+            final List<? extends RowConsumer<?>> rowConsumers,
+            final int batchSize) throws ExcelService.Exception {
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        if(rowConsumers.size() != worksheetSpecs.size()) {
+            throw new IllegalArgumentException("A row consumer is required for each worksheet spec");
+        }
+        try {
+            return newExcelConverter().fromBytes(
+                    worksheetSpecs, excelBlob.getBytes(), digest, container, rowConsumers, batchSize);
+        } catch (final IOException | InvalidFormatException e) {
+            throw new ExcelService.Exception(e);
+        }
+    }
+
+    /**
+     * As {@link #fromExcel(Blob, WorksheetSpec)}, but reading and converting each row only as the returned iterator
+     * is advanced.  The iterator should be closed once done with.
+     */
+    @Programmatic
+    public <T> ImportIterator<T> fromExcelLazily(
+            final Blob excelBlob,
+            final WorksheetSpec worksheetSpec) throws ExcelService.Exception {
+        try {
+            return newExcelConverter().iteratorFromBytes(worksheetSpec, excelBlob.getBytes(), container);
+        } catch (final IOException | InvalidFormatException e) {
+            throw new ExcelService.Exception(e);
+        }
+    }
+
     private ExcelConverter newExcelConverter() {
-        return new ExcelConverter(getSpecificationLoader(), getPersistenceSession(), bookmarkService);
+        return new ExcelConverter(getSpecificationLoader(), getPersistenceSession(), bookmarkService, isisSessionFactory);
     }
 
 
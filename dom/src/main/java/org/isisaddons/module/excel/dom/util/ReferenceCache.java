@@ -0,0 +1,96 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The title and bookmark of each object referenced by the rows of a single export, so that an object referenced by
+ * many rows is titled and bookmarked only once.
+ *
+ * <p>
+ *     Objects are held by identity (and only weakly, so that domain objects provided a page at a time can still be
+ *     released once written).  A cache is shared by all the sheets of an export, including those generated in
+ *     parallel; as each such sheet has its own session (and hence its own instances), entries are never shared
+ *     between threads in practice.
+ * </p>
+ */
+final class ReferenceCache {
+
+    /**
+     * The default number of objects held, both here and by a {@link BookmarkResolver} on import.
+     */
+    static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    static class Reference {
+        private final String title;
+        private final String bookmark;
+
+        Reference(final String title, final String bookmark) {
+            this.title = title;
+            this.bookmark = bookmark;
+        }
+
+        String getTitle() {
+            return title;
+        }
+
+        String getBookmark() {
+            return bookmark;
+        }
+    }
+
+    private final Cache<Object, Reference> referenceByObject;
+
+    ReferenceCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    ReferenceCache(final int maximumSize) {
+        // weakKeys() implies identity (==) comparison of keys
+        this.referenceByObject = CacheBuilder.newBuilder()
+                .weakKeys()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * The previously cached reference for the object, or <tt>null</tt> if none (counted as a miss).
+     */
+    Reference get(final Object referencedObject) {
+        return referenceByObject.getIfPresent(referencedObject);
+    }
+
+    void put(final Object referencedObject, final Reference reference) {
+        referenceByObject.put(referencedObject, reference);
+    }
+
+    long getHitCount() {
+        return referenceByObject.stats().hitCount();
+    }
+
+    long getMissCount() {
+        return referenceByObject.stats().missCount();
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHitCount() + ", misses=" + getMissCount();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Maps;
+
+import org.apache.isis.applib.DomainObjectContainer;
+import org.apache.isis.core.metamodel.adapter.ObjectAdapter;
+import org.apache.isis.core.metamodel.adapter.mgr.AdapterManager;
+import org.apache.isis.core.metamodel.consent.InteractionInitiatedBy;
+import org.apache.isis.core.metamodel.facets.object.viewmodel.ViewModelFacet;
+import org.apache.isis.core.metamodel.services.ServicesInjector;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.WorksheetSpec;
+
+/**
+ * Converts the rows of a sheet into domain objects, one row at a time as they are iterated over.  The header row is
+ * read (and mapped onto the properties of the class) up-front.
+ */
+class SheetImporter<T> extends AbstractIterator<T> implements Closeable {
+
+    private final Class<T> cls;
+    private final String sheetName;
+    private final SheetReader sheetReader;
+    private final CellMarshaller cellMarshaller;
+    private final boolean trusted;
+    private final AdapterManager adapterManager;
+    private final ServicesInjector servicesInjector;
+    private final DomainObjectContainer container;
+    private final ViewModelFacet viewModelFacet;
+
+    private final Map<Integer, ExcelConverter.Property> propertyByColumn = Maps.newTreeMap();
+    private final Map<Integer, ExcelConverter.Property> propertyByBookmarkColumn = Maps.newTreeMap();
+    private final boolean directlyPopulated;
+
+    private int numRows;
+
+    @SuppressWarnings("unchecked")
+    SheetImporter(
+            final WorksheetSpec worksheetSpec,
+            final String sheetName,
+            final SheetReader sheetReader,
+            final ColumnPlan columnPlan,
+            final CellMarshaller cellMarshaller,
+            final AdapterManager adapterManager,
+            final ServicesInjector servicesInjector,
+            final DomainObjectContainer container) {
+        this.cls = (Class<T>) worksheetSpec.getCls();
+        this.sheetName = sheetName;
+        this.sheetReader = sheetReader;
+        this.cellMarshaller = cellMarshaller;
+        this.trusted = worksheetSpec.isTrustedImport();
+        this.adapterManager = adapterManager;
+        this.servicesInjector = servicesInjector;
+        this.container = container;
+        this.viewModelFacet = columnPlan.getObjectSpecification().getFacet(ViewModelFacet.class);
+
+        if (sheetReader.hasNext()) {
+            readHeader(sheetReader.next(), columnPlan);
+        }
+        this.directlyPopulated = (columnPlan.isDirectlyPopulatableViewModel() ||
+                                  worksheetSpec.isDirectPopulation() && columnPlan.isDirectlyPopulatablePlainObject())
+                                 && hasSetters();
+    }
+
+    private boolean hasSetters() {
+        for (final ExcelConverter.Property property : propertyByColumn.values()) {
+            if (property.getSetter() == null) {
+                return false;
+            }
+        }
+        for (final ExcelConverter.Property property : propertyByBookmarkColumn.values()) {
+            if (property.getSetter() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void readHeader(final SheetRow row, final ColumnPlan columnPlan) {
+        final Map<Integer, ColumnPlan.Column> bookmarkedColumnByColumn = Maps.newTreeMap();
+        for (int columnIndex = 0; columnIndex < row.getNumColumns(); columnIndex++) {
+            final String propertyName = cellMarshaller.getStringCellValue(row.getValue(columnIndex));
+            if (propertyName == null) {
+                continue;
+            }
+            if (ColumnPlan.isBookmarkHeader(propertyName)) {
+                final ColumnPlan.Column column = columnPlan.getBookmarkedColumn(propertyName);
+                if (column != null) {
+                    bookmarkedColumnByColumn.put(columnIndex, column);
+                }
+            } else {
+                final ColumnPlan.Column column = columnPlan.getColumn(propertyName);
+                if (column != null) {
+                    propertyByColumn.put(columnIndex, new ExcelConverter.Property(propertyName, column, columnIndex));
+                }
+            }
+        }
+        // bookmarks held in (hidden) columns rather than as comments; associate with the visible column, if any
+        for (final Map.Entry<Integer, ColumnPlan.Column> entry : bookmarkedColumnByColumn.entrySet()) {
+            final ColumnPlan.Column column = entry.getValue();
+            ExcelConverter.Property property = null;
+            for (final ExcelConverter.Property candidate : propertyByColumn.values()) {
+                if (candidate.getOneToOneAssociation() == column.getAssociation()) {
+                    property = candidate;
+                }
+            }
+            if (property == null) {
+                property = new ExcelConverter.Property(column.getName(), column, -1);
+            }
+            property.setBookmarkColumnIndex(entry.getKey());
+            propertyByBookmarkColumn.put(entry.getKey(), property);
+        }
+    }
+
+    @Override
+    protected T computeNext() {
+        while (sheetReader.hasNext()) {
+            final SheetRow row = sheetReader.next();
+            numRows++;
+            final T imported = importRow(row);
+            if (imported != null) {
+                return imported;
+            }
+        }
+        return endOfData();
+    }
+
+    /**
+     * @return the domain object, or <tt>null</tt> if the row is blank.
+     */
+    private T importRow(final SheetRow row) {
+        try {
+
+            // Let's require at least one column to be not null for detecting a blank row.
+            // Excel can have physical rows with cells empty that it seem do not existent for the user.
+            final ImportedRow importedRow = new ImportedRow();
+            for (final Map.Entry<Integer, ExcelConverter.Property> entry : propertyByColumn.entrySet()) {
+                final ExcelConverter.Property property = entry.getValue();
+                if (property.getBookmarkColumnIndex() >= 0) {
+                    // read from the bookmark column instead (below)
+                    continue;
+                }
+                final Object value = cellMarshaller.getCellValue(row, entry.getKey(), property.getValueReader());
+                importedRow.set(property, value);
+            }
+            for (final Map.Entry<Integer, ExcelConverter.Property> entry : propertyByBookmarkColumn.entrySet()) {
+                final ExcelConverter.Property property = entry.getValue();
+                if (isBlank(row, property)) {
+                    continue;
+                }
+                final Object value = cellMarshaller.getBookmarkCellValue(row, entry.getKey(), property.getType());
+                importedRow.set(property, value);
+            }
+
+            final T imported = importedRow.getImported();
+            if (imported == null) {
+                return null;
+            }
+            if (directlyPopulated) {
+                // already the final (view model or plain) object itself
+                return imported;
+            }
+            if (viewModelFacet != null) {
+                // if there is a view model, then use the imported object as a template
+                // in order to create a regular view model.
+                final String memento = viewModelFacet.memento(imported);
+                return container.newViewModelInstance(cls, memento);
+            } else {
+                // else, just return the imported items as simple transient instances.
+                return imported;
+            }
+
+        } catch (final Exception e) {
+            throw new ExcelService.Exception(String.format("Error processing Excel row nr. %d. Message: %s", row.getRowNum(), e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Whether the visible cell of a reference has been cleared, in which case any bookmark still held in the hidden
+     * column is ignored (just as a comment on a blank cell is).
+     */
+    private static boolean isBlank(final SheetRow row, final ExcelConverter.Property property) {
+        if (property.getColumnIndex() < 0) {
+            // no visible column
+            return false;
+        }
+        return row.getValue(property.getColumnIndex()) == null;
+    }
+
+    /**
+     * The name of the sheet being read.
+     */
+    String getSheetName() {
+        return sheetName;
+    }
+
+    /**
+     * The number of rows (excluding the header row, but including any blank rows) read so far.
+     */
+    int getNumRows() {
+        return numRows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sheetReader.close();
+    }
+
+    /**
+     * The object being imported from a row, instantiated only once a (non-null) value is found.
+     *
+     * <p>
+     *     Normally this is a transient template, populated through the metamodel; but a view model whose imported
+     *     properties are all set by the metamodel just by calling their setters is instead instantiated and
+     *     populated directly through the cached setter handles, there being nothing that its memento would capture
+     *     that those setters do not.  So, if {@link WorksheetSpec#withDirectPopulation() requested}, is a plain
+     *     object (eg an {@link org.isisaddons.module.excel.dom.ExcelFixtureRowHandler}).  Either way, no
+     *     {@link ObjectAdapter}s are created.
+     * </p>
+     *
+     * <p>
+     *     For a {@link WorksheetSpec#withTrustedImport() trusted} import the template is also populated through the
+     *     setters, wherever the property has one; only the remaining properties (eg those with a <tt>modifyXxx()</tt>
+     *     method or domain event) are set through the metamodel, as
+     *     {@link InteractionInitiatedBy#FRAMEWORK framework}-initiated.
+     * </p>
+     */
+    private class ImportedRow {
+
+        private T imported;
+        private ObjectAdapter templateAdapter;
+
+        void set(final ExcelConverter.Property property, final Object value) throws ReflectiveOperationException {
+            if (value == null) {
+                return;
+            }
+            if (directlyPopulated) {
+                if (imported == null) {
+                    imported = cls.newInstance();
+                    servicesInjector.injectServicesInto(imported);
+                }
+                invokeSetter(property, value);
+                return;
+            }
+            if (imported == null) {
+                // copy the row into a new object
+                imported = container.newTransientInstance(cls);
+            }
+            if (trusted && property.getSetter() != null) {
+                invokeSetter(property, value);
+                return;
+            }
+            if (templateAdapter == null) {
+                templateAdapter = adapterManager.adapterFor(imported);
+            }
+            final ObjectAdapter valueAdapter = adapterManager.adapterFor(value);
+            property.getOneToOneAssociation().set(
+                    templateAdapter, valueAdapter, trusted ? InteractionInitiatedBy.FRAMEWORK : InteractionInitiatedBy.USER);
+        }
+
+        private void invokeSetter(final ExcelConverter.Property property, final Object value) {
+            try {
+                property.getSetter().invokeExact((Object) imported, value);
+            } catch (final Throwable ex) {
+                throw Throwables.propagate(ex);
+            }
+        }
+
+        T getImported() {
+            return imported;
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+/**
+ * A row of a sheet being imported, holding the raw value of each cell: a {@link String}, a {@link Double} (for
+ * numbers and dates alike), a {@link Boolean}, or <tt>null</tt> if blank (or an error).  The cached result is used
+ * for formulae.
+ *
+ * <p>
+ *     Only the comments are read on demand, as they are only needed for references.
+ * </p>
+ */
+abstract class SheetRow {
+
+    private final int rowNum;
+    private final Object[] values;
+
+    SheetRow(final int rowNum, final Object[] values) {
+        this.rowNum = rowNum;
+        this.values = values;
+    }
+
+    /**
+     * The (0-based) number of the row.
+     */
+    int getRowNum() {
+        return rowNum;
+    }
+
+    /**
+     * One more than the index of the last column with a value (blank or otherwise).
+     */
+    int getNumColumns() {
+        return values.length;
+    }
+
+    Object getValue(final int columnIndex) {
+        return columnIndex >= 0 && columnIndex < values.length ? values[columnIndex] : null;
+    }
+
+    /**
+     * The text of the comment on the cell, if any.
+     */
+    abstract String getComment(int columnIndex);
+
+}
@@ -0,0 +1,388 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import org.apache.poi.POIXMLDocument;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackageRelationshipTypes;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.xml.sax.SAXException;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+
+/**
+ * Reads an .xlsx workbook by pulling the XML of each sheet a row at a time, so that (other than the shared strings)
+ * memory use depends on the width of the rows rather than the size of the file.
+ *
+ * <p>
+ *     The comments of a sheet are held in a separate part, in no particular order; so should any comment be asked
+ *     for, then all of the comments of the sheet are read into memory at that point.  Comments are only needed for
+ *     references whose bookmarks are not held in bookmark columns, see
+ *     {@link org.isisaddons.module.excel.dom.WorksheetSpec#withBookmarkColumns()}.
+ * </p>
+ *
+ * <p>
+ *     The package is read from a temporary file (rather than unzipped into memory), which is deleted on
+ *     {@link #close()}.
+ * </p>
+ */
+final class StreamingWorkbookReader implements WorkbookReader {
+
+    private static final String RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = newXmlInputFactory();
+
+    private static XMLInputFactory newXmlInputFactory() {
+        final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return xmlInputFactory;
+    }
+
+    /**
+     * Whether the bytes are those of an .xlsx (as opposed to .xls) file.
+     */
+    static boolean isSupported(final byte[] bs) throws IOException {
+        try (ByteArrayInputStream bais = new ByteArrayInputStream(bs)) {
+            return POIXMLDocument.hasOOXMLHeader(bais);
+        }
+    }
+
+    static StreamingWorkbookReader open(final byte[] bs) throws IOException, InvalidFormatException {
+        final File file = File.createTempFile("excel-import", ".xlsx");
+        try {
+            Files.write(bs, file);
+            return new StreamingWorkbookReader(file);
+        } catch (final IOException | InvalidFormatException | RuntimeException ex) {
+            file.delete();
+            throw ex;
+        }
+    }
+
+    private final File file;
+    private final OPCPackage pkg;
+    private final PackagePart workbookPart;
+    private final ReadOnlySharedStringsTable sharedStrings;
+    private final Map<String, String> relIdBySheetName = Maps.newLinkedHashMap();
+    private boolean date1904;
+
+    private StreamingWorkbookReader(final File file) throws IOException, InvalidFormatException {
+        this.file = file;
+        this.pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
+        try {
+            this.workbookPart = pkg.getPart(
+                    pkg.getRelationshipsByType(PackageRelationshipTypes.CORE_DOCUMENT).getRelationship(0));
+            this.sharedStrings = new ReadOnlySharedStringsTable(pkg);
+            readWorkbook();
+        } catch (final SAXException | XMLStreamException ex) {
+            pkg.revert();
+            throw new IOException(ex);
+        } catch (final IOException | RuntimeException ex) {
+            pkg.revert();
+            throw ex;
+        }
+    }
+
+    private void readWorkbook() throws IOException, XMLStreamException {
+        try (InputStream is = workbookPart.getInputStream()) {
+            final XMLStreamReader xr = XML_INPUT_FACTORY.createXMLStreamReader(is);
+            try {
+                while (xr.hasNext()) {
+                    if(xr.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    final String localName = xr.getLocalName();
+                    if("workbookPr".equals(localName)) {
+                        final String date1904 = xr.getAttributeValue(null, "date1904");
+                        this.date1904 = "1".equals(date1904) || "true".equals(date1904);
+                    } else if("sheet".equals(localName)) {
+                        relIdBySheetName.put(
+                                xr.getAttributeValue(null, "name"),
+                                xr.getAttributeValue(RELATIONSHIPS_NS, "id"));
+                    }
+                }
+            } finally {
+                xr.close();
+            }
+        }
+    }
+
+    @Override
+    public List<String> getSheetNames() {
+        return Lists.newArrayList(relIdBySheetName.keySet());
+    }
+
+    @Override
+    public boolean isDate1904() {
+        return date1904;
+    }
+
+    @Override
+    public SheetReader openSheet(final String sheetName) throws IOException, InvalidFormatException {
+        final String relId = relIdBySheetName.get(sheetName);
+        if(relId == null) {
+            throw new IllegalArgumentException(String.format("Could not locate sheet named '%s'", sheetName));
+        }
+        final PackagePart sheetPart = partFor(workbookPart.getRelationship(relId));
+        final InputStream is = sheetPart.getInputStream();
+        try {
+            return new StreamingSheetReader(sheetPart, is, XML_INPUT_FACTORY.createXMLStreamReader(is));
+        } catch (final XMLStreamException ex) {
+            is.close();
+            throw new IOException(ex);
+        }
+    }
+
+    private PackagePart partFor(final PackageRelationship relationship) throws InvalidFormatException {
+        return pkg.getPart(PackagingURIHelper.createPartName(relationship.getTargetURI()));
+    }
+
+    /**
+     * The text of each comment of the sheet, keyed by cell reference (eg "B2").
+     */
+    private Map<String, String> readComments(final PackagePart sheetPart) throws IOException, InvalidFormatException {
+        final Map<String, String> commentByRef = Maps.newHashMap();
+        for (final PackageRelationship relationship :
+                sheetPart.getRelationshipsByType(XSSFRelation.SHEET_COMMENTS.getRelation())) {
+            try (InputStream is = partFor(relationship).getInputStream()) {
+                final XMLStreamReader xr = XML_INPUT_FACTORY.createXMLStreamReader(is);
+                try {
+                    String ref = null;
+                    StringBuilder text = null;
+                    while (xr.hasNext()) {
+                        final int event = xr.next();
+                        if(event == XMLStreamConstants.START_ELEMENT) {
+                            final String localName = xr.getLocalName();
+                            if("comment".equals(localName)) {
+                                ref = xr.getAttributeValue(null, "ref");
+                                text = new StringBuilder();
+                            } else if("t".equals(localName) && text != null) {
+                                text.append(xr.getElementText());
+                            } else if("rPh".equals(localName)) {
+                                skipElement(xr);
+                            }
+                        } else if(event == XMLStreamConstants.END_ELEMENT && "comment".equals(xr.getLocalName())) {
+                            commentByRef.put(ref, text.toString());
+                            ref = null;
+                            text = null;
+                        }
+                    }
+                } finally {
+                    xr.close();
+                }
+            } catch (final XMLStreamException ex) {
+                throw new IOException(ex);
+            }
+        }
+        return commentByRef;
+    }
+
+    /**
+     * Skips over the current element, eg a phonetic run (<tt>&lt;rPh&gt;</tt>) whose text is not part of the string.
+     */
+    private static void skipElement(final XMLStreamReader xr) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && xr.hasNext()) {
+            final int event = xr.next();
+            if(event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if(event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // opened read-only, so discard rather than save
+        pkg.revert();
+        file.delete();
+    }
+
+    private class StreamingSheetReader extends SheetReader {
+
+        private final PackagePart sheetPart;
+        private final InputStream is;
+        private final XMLStreamReader xr;
+
+        private final ArrayList<Object> values = Lists.newArrayList();
+        private int rowNum = -1;
+        private Map<String, String> commentByRef;
+
+        StreamingSheetReader(
+                final PackagePart sheetPart,
+                final InputStream is,
+                final XMLStreamReader xr) {
+            this.sheetPart = sheetPart;
+            this.is = is;
+            this.xr = xr;
+        }
+
+        /**
+         * The comments of the sheet, read when first needed.
+         */
+        Map<String, String> getCommentByRef() {
+            if(commentByRef == null) {
+                try {
+                    commentByRef = readComments(sheetPart);
+                } catch (final IOException | InvalidFormatException ex) {
+                    throw new ExcelService.Exception(ex);
+                }
+            }
+            return commentByRef;
+        }
+
+        @Override
+        protected SheetRow computeNext() {
+            try {
+                while (xr.hasNext()) {
+                    if(xr.next() == XMLStreamConstants.START_ELEMENT && "row".equals(xr.getLocalName())) {
+                        return readRow();
+                    }
+                }
+                return endOfData();
+            } catch (final XMLStreamException ex) {
+                throw new ExcelService.Exception(ex);
+            }
+        }
+
+        private SheetRow readRow() throws XMLStreamException {
+            final String r = xr.getAttributeValue(null, "r");
+            rowNum = r != null ? Integer.parseInt(r) - 1 : rowNum + 1;
+
+            values.clear();
+            int columnIndex = -1;
+            while (xr.hasNext()) {
+                final int event = xr.next();
+                if(event == XMLStreamConstants.START_ELEMENT && "c".equals(xr.getLocalName())) {
+                    final String ref = xr.getAttributeValue(null, "r");
+                    columnIndex = ref != null ? new CellReference(ref).getCol() : columnIndex + 1;
+                    final Object value = readCell(xr.getAttributeValue(null, "t"));
+                    while (values.size() <= columnIndex) {
+                        values.add(null);
+                    }
+                    values.set(columnIndex, value);
+                } else if(event == XMLStreamConstants.END_ELEMENT && "row".equals(xr.getLocalName())) {
+                    break;
+                }
+            }
+            return new StreamingRow(rowNum, values.toArray(), this);
+        }
+
+        private Object readCell(final String type) throws XMLStreamException {
+            String value = null;
+            StringBuilder inlineString = null;
+            while (xr.hasNext()) {
+                final int event = xr.next();
+                if(event == XMLStreamConstants.START_ELEMENT) {
+                    final String localName = xr.getLocalName();
+                    if("v".equals(localName)) {
+                        value = xr.getElementText();
+                    } else if("is".equals(localName)) {
+                        inlineString = new StringBuilder();
+                    } else if("t".equals(localName) && inlineString != null) {
+                        // directly within <is>, or within a rich text run <r>
+                        inlineString.append(xr.getElementText());
+                    } else if("rPh".equals(localName)) {
+                        skipElement(xr);
+                    } else if("f".equals(localName)) {
+                        // the formula itself is not needed, only its cached value
+                        xr.getElementText();
+                    }
+                } else if(event == XMLStreamConstants.END_ELEMENT && "c".equals(xr.getLocalName())) {
+                    break;
+                }
+            }
+
+            if("inlineStr".equals(type)) {
+                return inlineString != null ? inlineString.toString() : null;
+            }
+            if(value == null) {
+                return null;
+            }
+            if(type == null || "n".equals(type)) {
+                return Double.valueOf(value);
+            }
+            switch (type) {
+            case "s":
+                return sharedStrings.getEntryAt(Integer.parseInt(value));
+            case "str":
+                return value;
+            case "b":
+                return "1".equals(value) || "true".equals(value);
+            default:
+                // error (or unknown)
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                xr.close();
+            } catch (final XMLStreamException ex) {
+                throw new IOException(ex);
+            } finally {
+                is.close();
+            }
+        }
+    }
+
+    private static class StreamingRow extends SheetRow {
+
+        private final StreamingSheetReader sheetReader;
+
+        StreamingRow(final int rowNum, final Object[] values, final StreamingSheetReader sheetReader) {
+            super(rowNum, values);
+            this.sheetReader = sheetReader;
+        }
+
+        @Override
+        String getComment(final int columnIndex) {
+            final Map<String, String> commentByRef = sheetReader.getCommentByRef();
+            if(commentByRef.isEmpty()) {
+                return null;
+            }
+            return commentByRef.get(CellReference.convertNumToColString(columnIndex) + (getRowNum() + 1));
+        }
+    }
+
+}
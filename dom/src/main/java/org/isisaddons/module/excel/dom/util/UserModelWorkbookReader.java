@@ -0,0 +1,185 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import org.apache.poi.hssf.record.DateWindow1904Record;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FilePassRecord;
+import org.apache.poi.hssf.record.RecordFormatException;
+import org.apache.poi.hssf.record.RecordInputStream;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.poifs.filesystem.DirectoryNode;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Comment;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbookPr;
+
+/**
+ * Reads a workbook (.xls or .xlsx) through the POI usermodel, ie having first loaded it entirely into memory.
+ */
+final class UserModelWorkbookReader implements WorkbookReader {
+
+    static UserModelWorkbookReader open(final byte[] bs) throws IOException, InvalidFormatException {
+        try (ByteArrayInputStream bais = new ByteArrayInputStream(bs)) {
+            return new UserModelWorkbookReader(WorkbookFactory.create(bais));
+        }
+    }
+
+    private final Workbook workbook;
+
+    UserModelWorkbookReader(final Workbook workbook) {
+        this.workbook = workbook;
+    }
+
+    @Override
+    public List<String> getSheetNames() {
+        final List<String> sheetNames = Lists.newArrayList();
+        for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+            sheetNames.add(workbook.getSheetName(i));
+        }
+        return sheetNames;
+    }
+
+    @Override
+    public boolean isDate1904() {
+        if(workbook instanceof XSSFWorkbook) {
+            final CTWorkbookPr workbookPr = ((XSSFWorkbook) workbook).getCTWorkbook().getWorkbookPr();
+            return workbookPr != null && workbookPr.isSetDate1904() && workbookPr.getDate1904();
+        }
+        if(workbook instanceof HSSFWorkbook) {
+            return isDate1904((HSSFWorkbook) workbook);
+        }
+        return false;
+    }
+
+    /**
+     * The date system of a .xls workbook is not exposed by {@link HSSFWorkbook} (as of POI 3.9), so is read from
+     * the records of the workbook globals instead.
+     */
+    private static boolean isDate1904(final HSSFWorkbook workbook) {
+        final DirectoryNode root = workbook.getRootDirectory();
+        if(root == null || !root.hasEntry("Workbook")) {
+            return false;
+        }
+        try (InputStream is = root.createDocumentInputStream("Workbook")) {
+            final RecordInputStream ris = new RecordInputStream(is);
+            while (ris.hasNextRecord()) {
+                ris.nextRecord();
+                final short sid = ris.getSid();
+                if(sid == DateWindow1904Record.sid) {
+                    return new DateWindow1904Record(ris).getWindowing() == 1;
+                }
+                if(sid == EOFRecord.sid || sid == FilePassRecord.sid) {
+                    // end of the globals, or the remaining records are encrypted
+                    return false;
+                }
+                ris.readRemainder();
+            }
+        } catch (final IOException | RecordFormatException ex) {
+            // fall through
+        }
+        return false;
+    }
+
+    @Override
+    public SheetReader openSheet(final String sheetName) {
+        final Sheet sheet = workbook.getSheet(sheetName);
+        if(sheet == null) {
+            throw new IllegalArgumentException(String.format("Could not locate sheet named '%s'", sheetName));
+        }
+        final Iterator<Row> rows = sheet.iterator();
+        return new SheetReader() {
+            @Override
+            protected SheetRow computeNext() {
+                return rows.hasNext() ? new UserModelRow(rows.next()) : endOfData();
+            }
+
+            @Override
+            public void close() {
+                // nothing to release
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    private static class UserModelRow extends SheetRow {
+
+        private final Row row;
+
+        UserModelRow(final Row row) {
+            super(row.getRowNum(), valuesOf(row));
+            this.row = row;
+        }
+
+        private static Object[] valuesOf(final Row row) {
+            final Object[] values = new Object[Math.max(row.getLastCellNum(), 0)];
+            for (final Cell cell : row) {
+                values[cell.getColumnIndex()] = valueOf(cell, cell.getCellType());
+            }
+            return values;
+        }
+
+        private static Object valueOf(final Cell cell, final int cellType) {
+            switch (cellType) {
+            case Cell.CELL_TYPE_NUMERIC:
+                return cell.getNumericCellValue();
+            case Cell.CELL_TYPE_STRING:
+                return cell.getStringCellValue();
+            case Cell.CELL_TYPE_BOOLEAN:
+                return cell.getBooleanCellValue();
+            case Cell.CELL_TYPE_FORMULA:
+                return valueOf(cell, cell.getCachedFormulaResultType());
+            default:
+                // blank or error
+                return null;
+            }
+        }
+
+        @Override
+        String getComment(final int columnIndex) {
+            final Cell cell = row.getCell(columnIndex);
+            if(cell == null) {
+                return null;
+            }
+            final Comment comment = cell.getCellComment();
+            if(comment == null) {
+                return null;
+            }
+            final RichTextString commentRts = comment.getString();
+            return commentRts != null ? commentRts.getString() : null;
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+
+/**
+ * A workbook being imported, from which the rows of each sheet can be read.
+ *
+ * <p>
+ *     Implemented both over the POI usermodel (any format, but holding the whole workbook in memory) and by
+ *     streaming the XML of an .xlsx file (so that memory depends on the width of the rows rather than the size of
+ *     the file).
+ * </p>
+ */
+interface WorkbookReader extends Closeable {
+
+    /**
+     * The names of the sheets, in order.
+     */
+    List<String> getSheetNames();
+
+    /**
+     * Whether dates are held as days since 1904 (rather than since 1900).
+     */
+    boolean isDate1904();
+
+    SheetReader openSheet(String sheetName) throws IOException, InvalidFormatException;
+
+}
@@ -54,7 +54,14 @@ public class ExcelModuleDemoToDoItem_export2 {
         if(actionInvocationContext.isLast()) {
             // ie current object only
             final List toDoItems = actionInvocationContext.getDomainObjects();
-            final List<ExcelModuleDemoToDoItem> allItems = this.excelModuleDemoToDoItems.allInstances();
+            // all items are read a page at a time, rather than all loaded into memory up-front
+            final WorksheetContent.PageSupplier<ExcelModuleDemoToDoItem> allItems =
+                    new WorksheetContent.PageSupplier<ExcelModuleDemoToDoItem>() {
+                        @Override
+                        public List<ExcelModuleDemoToDoItem> getPage(final int start, final int count) {
+                            return excelModuleDemoToDoItems.allInstances(start, count);
+                        }
+                    };
             final List<WorksheetContent> worksheetContents = Lists.newArrayList(
                     new WorksheetContent(toDoItems, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "current")),
                     new WorksheetContent(allItems, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "all")));
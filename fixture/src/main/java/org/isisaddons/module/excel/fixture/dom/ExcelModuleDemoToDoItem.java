@@ -86,6 +86,12 @@ import org.isisaddons.module.excel.dom.ExcelService;
                     + "FROM org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem "
                     + "WHERE ownedBy == :ownedBy "
                     + "   && description == :description"),
+    @javax.jdo.annotations.Query(
+            name = "findByDescriptions", language = "JDOQL",
+            value = "SELECT "
+                    + "FROM org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem "
+                    + "WHERE ownedBy == :ownedBy "
+                    + "   && :descriptions.contains(description)"),
     @javax.jdo.annotations.Query(
             name = "todo_complete", language = "JDOQL",
             value = "SELECT "
@@ -103,7 +109,12 @@ import org.isisaddons.module.excel.dom.ExcelService;
             value = "SELECT "
                     + "FROM org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem "
                     + "WHERE ownedBy == :ownedBy && "
-                    + "description.indexOf(:description) >= 0")
+                    + "description.indexOf(:description) >= 0"),
+    @javax.jdo.annotations.Query(
+            name = "todo_allOrdered", language = "JDOQL",
+            value = "SELECT "
+                    + "FROM org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem "
+                    + "ORDER BY ownedBy ASC, description ASC")
 })
 @DomainObject(
         objectType = "TODO",
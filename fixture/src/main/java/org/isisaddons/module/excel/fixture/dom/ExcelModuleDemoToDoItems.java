@@ -17,6 +17,7 @@
 package org.isisaddons.module.excel.fixture.dom;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
@@ -102,6 +103,21 @@ public class ExcelModuleDemoToDoItems {
                         "ownedBy", currentUserName()));
     }
 
+    /**
+     * As {@link #findByDescription(String)}, but finding the items for all of the descriptions in a single query.
+     */
+    @Programmatic
+    public List<ExcelModuleDemoToDoItem> findByDescriptions(final Collection<String> descriptions) {
+        if(descriptions.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return container.allMatches(
+                new QueryDefault<>(ExcelModuleDemoToDoItem.class,
+                        "findByDescriptions",
+                        "descriptions", descriptions,
+                        "ownedBy", currentUserName()));
+    }
+
     // //////////////////////////////////////
     // Complete (action)
     // //////////////////////////////////////
@@ -227,6 +243,18 @@ public class ExcelModuleDemoToDoItems {
     public List<ExcelModuleDemoToDoItem> allInstances() {
         return container.allInstances(ExcelModuleDemoToDoItem.class);
     }
+
+    /**
+     * A page of all items; ordered by the (unique) owner and description, so that successive pages neither overlap
+     * nor miss any items.
+     */
+    @Programmatic
+    public List<ExcelModuleDemoToDoItem> allInstances(final int start, final int count) {
+        return container.allMatches(
+                new QueryDefault<>(ExcelModuleDemoToDoItem.class, "todo_allOrdered")
+                        .withStart(start)
+                        .withCount(count));
+    }
     
     private String currentUserName() {
         return container.getUser().getName();
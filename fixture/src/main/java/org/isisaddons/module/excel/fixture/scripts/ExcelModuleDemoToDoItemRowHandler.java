@@ -19,6 +19,12 @@ package org.isisaddons.module.excel.fixture.scripts;
 import java.math.BigDecimal;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import org.joda.time.LocalDate;
 
@@ -27,6 +33,7 @@ import org.apache.isis.applib.clock.Clock;
 import org.apache.isis.applib.fixturescripts.FixtureScript;
 
 import org.isisaddons.module.excel.dom.ExcelFixture;
+import org.isisaddons.module.excel.dom.ExcelFixtureBatchRowHandler;
 import org.isisaddons.module.excel.dom.ExcelFixtureRowHandler;
 import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem;
 import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItems;
@@ -34,7 +41,7 @@ import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItems;
 import lombok.Getter;
 import lombok.Setter;
 
-public class ExcelModuleDemoToDoItemRowHandler implements ExcelFixtureRowHandler {
+public class ExcelModuleDemoToDoItemRowHandler implements ExcelFixtureRowHandler, ExcelFixtureBatchRowHandler {
 
     @Getter @Setter
     private String description;
@@ -56,29 +63,62 @@ public class ExcelModuleDemoToDoItemRowHandler implements ExcelFixtureRowHandler
             final FixtureScript.ExecutionContext executionContext,
             final ExcelFixture excelFixture,
             final Object previousRow) {
-        final ExcelModuleDemoToDoItemRowHandler previous = (ExcelModuleDemoToDoItemRowHandler) previousRow;
-        if(category == null) {
-            category = previous.category;
+        return handleRows(executionContext, excelFixture, Collections.singletonList(this), previousRow);
+    }
+
+    @Override
+    public List<Object> handleRows(
+            final FixtureScript.ExecutionContext executionContext,
+            final ExcelFixture excelFixture,
+            final List<?> rows,
+            final Object previousRow) {
+
+        // fill in any category/subcategory from the previous row
+        final List<ExcelModuleDemoToDoItemRowHandler> handlers = Lists.newArrayList();
+        ExcelModuleDemoToDoItemRowHandler previous = (ExcelModuleDemoToDoItemRowHandler) previousRow;
+        for (final Object row : rows) {
+            final ExcelModuleDemoToDoItemRowHandler handler = (ExcelModuleDemoToDoItemRowHandler) row;
+            if(handler.category == null) {
+                handler.category = previous.category;
+            }
+            if(handler.subcategory == null) {
+                handler.subcategory = previous.subcategory;
+            }
+            handlers.add(handler);
+            previous = handler;
+        }
+
+        // look up the existing items for all of the rows in one go
+        final Set<String> descriptions = Sets.newHashSet();
+        for (final ExcelModuleDemoToDoItemRowHandler handler : handlers) {
+            descriptions.add(handler.description);
         }
-        if(subcategory == null) {
-            subcategory = previous.subcategory;
+        final Map<String, ExcelModuleDemoToDoItem> toDoItemByDescription = Maps.newHashMap();
+        for (final ExcelModuleDemoToDoItem toDoItem : toDoItemRepository.findByDescriptions(descriptions)) {
+            toDoItemByDescription.put(toDoItem.getDescription(), toDoItem);
         }
 
-        final LocalDate dueBy = daysFromToday(daysFromToday);
         final String user = executionContext.getParameter("user");
         final String username = user != null && user.length() > 0 ? user : container.getUser().getName();
-        ExcelModuleDemoToDoItem toDoItem = toDoItemRepository.findByDescription(description);
-        if(toDoItem != null) {
-            toDoItem.setCategory(category);
-            toDoItem.setSubcategory(subcategory);
-            toDoItem.setDueBy(dueBy);
-            toDoItem.setCost(cost);
-            toDoItem.setOwnedBy(username);
-        } else {
-            toDoItem = toDoItemRepository.newToDo(description, category, subcategory, username, dueBy, cost);
+        final List<Object> toDoItems = Lists.newArrayList();
+        for (final ExcelModuleDemoToDoItemRowHandler handler : handlers) {
+            final LocalDate dueBy = daysFromToday(handler.daysFromToday);
+            ExcelModuleDemoToDoItem toDoItem = toDoItemByDescription.get(handler.description);
+            if(toDoItem != null) {
+                toDoItem.setCategory(handler.category);
+                toDoItem.setSubcategory(handler.subcategory);
+                toDoItem.setDueBy(dueBy);
+                toDoItem.setCost(handler.cost);
+                toDoItem.setOwnedBy(username);
+            } else {
+                toDoItem = toDoItemRepository.newToDo(
+                        handler.description, handler.category, handler.subcategory, username, dueBy, handler.cost);
+                toDoItemByDescription.put(handler.description, toDoItem);
+            }
+            executionContext.addResult(excelFixture, toDoItem);
+            toDoItems.add(toDoItem);
         }
-        executionContext.addResult(excelFixture, toDoItem);
-        return Collections.<Object>singletonList(toDoItem);
+        return toDoItems;
     }
 
     private static LocalDate daysFromToday(final Integer i) {
@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.fixture.viewodels;
+
+import java.math.BigDecimal;
+
+import org.joda.time.LocalDate;
+
+import org.apache.isis.applib.annotation.DomainObject;
+import org.apache.isis.applib.annotation.Nature;
+
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A declarative view model of (some of) the properties of a {@link ExcelModuleDemoToDoItem}, as imported from a
+ * spreadsheet of exported to-do items.
+ */
+@DomainObject(nature = Nature.VIEW_MODEL)
+public class ExcelModuleDemoToDoItemSummary {
+
+    @Getter @Setter
+    private String description;
+
+    @Getter @Setter
+    private ExcelModuleDemoToDoItem.Category category;
+
+    @Getter @Setter
+    private ExcelModuleDemoToDoItem.Subcategory subcategory;
+
+    @Getter @Setter
+    private String ownedBy;
+
+    @Getter @Setter
+    private LocalDate dueBy;
+
+    @Getter @Setter
+    private boolean complete;
+
+    @Getter @Setter
+    private BigDecimal cost;
+
+    @Getter @Setter
+    private String notes;
+
+}
@@ -0,0 +1,32 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.fixture.viewodels;
+
+import org.apache.isis.applib.annotation.DomainObject;
+import org.apache.isis.applib.annotation.Nature;
+
+/**
+ * As {@link ExcelModuleDemoToDoItemSummary}, but with a lifecycle callback, so always imported through a template.
+ */
+@DomainObject(nature = Nature.VIEW_MODEL)
+public class ExcelModuleDemoToDoItemSummaryWithCallback extends ExcelModuleDemoToDoItemSummary {
+
+    public void created() {
+        // nothing to do
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2015 Jeroen van der Wal
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.isis.applib.services.bookmark.Bookmark;
+import org.apache.isis.applib.services.bookmark.BookmarkHolder;
+import org.apache.isis.applib.services.bookmark.BookmarkService;
+
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItems;
+import org.isisaddons.module.excel.fixture.scripts.RecreateToDoItems;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class BookmarkResolverIntegTest extends ExcelModuleModuleIntegTest {
+
+    @Before
+    public void setUpData() throws Exception {
+        scenarioExecution().install(new RecreateToDoItems());
+    }
+
+    @Inject
+    private ExcelModuleDemoToDoItems toDoItems;
+
+    @Inject
+    private BookmarkService bookmarkService;
+
+    @Test
+    public void each_bookmark_is_looked_up_once() throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final String first = bookmarkService.bookmarkFor(items.get(0)).toString();
+        final String second = bookmarkService.bookmarkFor(items.get(1)).toString();
+        final BookmarkResolver bookmarkResolver = new BookmarkResolver(bookmarkService);
+
+        // when
+        final Object resolved = bookmarkResolver.lookup(first, ExcelModuleDemoToDoItem.class);
+        bookmarkResolver.lookup(second, ExcelModuleDemoToDoItem.class);
+        final Object resolvedAgain = bookmarkResolver.lookup(first, ExcelModuleDemoToDoItem.class);
+
+        // then
+        assertThat(resolvedAgain, is(sameInstance(resolved)));
+        assertThat(((ExcelModuleDemoToDoItem) resolved).getDescription(), is(items.get(0).getDescription()));
+        assertThat(bookmarkResolver.getMissCount(), is(2L));
+        assertThat(bookmarkResolver.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void bookmarks_that_resolve_to_nothing_are_not_cached() throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final String bookmark = bookmarkService.bookmarkFor(items.get(0)).toString();
+        final NothingBookmarkService nothingBookmarkService = new NothingBookmarkService();
+        final BookmarkResolver bookmarkResolver = new BookmarkResolver(nothingBookmarkService);
+
+        // when
+        final Object resolved = bookmarkResolver.lookup(bookmark, ExcelModuleDemoToDoItem.class);
+        final Object resolvedAgain = bookmarkResolver.lookup(bookmark, ExcelModuleDemoToDoItem.class);
+
+        // then
+        assertThat(resolved, is(nullValue()));
+        assertThat(resolvedAgain, is(nullValue()));
+        assertThat(nothingBookmarkService.numLookups, is(2));
+        assertThat(bookmarkResolver.getMissCount(), is(2L));
+        assertThat(bookmarkResolver.getHitCount(), is(0L));
+    }
+
+    /**
+     * Resolves every bookmark to nothing, as if the objects had since been deleted.
+     */
+    private static class NothingBookmarkService implements BookmarkService {
+
+        private int numLookups;
+
+        @Override
+        public Object lookup(final BookmarkHolder bookmarkHolder) {
+            return lookup(bookmarkHolder.bookmark());
+        }
+
+        @Override
+        public Object lookup(final Bookmark bookmark) {
+            return lookup(bookmark, Object.class);
+        }
+
+        @Override
+        public <T> T lookup(final Bookmark bookmark, final Class<T> cls) {
+            numLookups++;
+            return null;
+        }
+
+        @Override
+        public Bookmark bookmarkFor(final Object domainObject) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Bookmark bookmarkFor(final Class<?> cls, final String identifier) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.apache.isis.applib.value.Blob;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.WorksheetContent;
+import org.isisaddons.module.excel.dom.WorksheetSpec;
+import org.isisaddons.module.excel.fixture.viewodels.ExcelModuleDemoToDoItemSummary;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+public class CachingWorkbookReaderIntegTest extends ExcelModuleModuleIntegTest {
+
+    private static final String SHEET_NAME = "summaries";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Inject
+    private ExcelService excelService;
+
+    private File directory;
+    private byte[] bytes;
+    private int timesOpened;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.newFolder();
+        bytes = export("item");
+    }
+
+    @Test
+    public void once_cached_the_workbook_is_not_opened() throws Exception {
+
+        // given
+        final List<List<Object>> rows = read(bytes, "fingerprint");
+        assertThat(timesOpened, is(1));
+
+        // when
+        final List<List<Object>> cachedRows = read(bytes, "fingerprint");
+
+        // then
+        assertThat(timesOpened, is(1));
+        assertThat(cachedRows, is(rows));
+        assertThat(rows.size(), is(21));
+    }
+
+    @Test
+    public void a_changed_fingerprint_is_not_read_from_the_cache() throws Exception {
+
+        // given
+        final List<List<Object>> rows = read(bytes, "fingerprint");
+
+        // when
+        final List<List<Object>> rowsForOtherFingerprint = read(bytes, "other fingerprint");
+
+        // then
+        assertThat(timesOpened, is(2));
+        assertThat(rowsForOtherFingerprint, is(rows));
+    }
+
+    @Test
+    public void a_changed_workbook_is_not_read_from_the_cache() throws Exception {
+
+        // given
+        final List<List<Object>> rows = read(bytes, "fingerprint");
+
+        // when
+        final List<List<Object>> otherRows = read(export("other item"), "fingerprint");
+
+        // then
+        assertThat(timesOpened, is(2));
+        assertThat(otherRows.size(), is(rows.size()));
+        assertThat(otherRows, is(not(rows)));
+    }
+
+    @Test
+    public void a_truncated_entry_falls_back_to_the_workbook() throws Exception {
+
+        // given
+        final List<List<Object>> rows = read(bytes, "fingerprint");
+        final File rowsFile = rowsFile();
+        try (RandomAccessFile raf = new RandomAccessFile(rowsFile, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+
+        // when
+        final List<List<Object>> fallenBackRows = read(bytes, "fingerprint");
+
+        // then
+        assertThat(timesOpened, is(2));
+        assertThat(fallenBackRows, is(rows));
+        assertThat(rowsFile.exists(), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sheets_cached_in_different_directories_are_rejected() throws Exception {
+        final Blob blob = new Blob("summaries.xlsx", ExcelService.XSLX_MIME_TYPE, bytes);
+        excelService.fromExcel(blob, Arrays.asList(
+                new WorksheetSpec(ExcelModuleDemoToDoItemSummary.class, SHEET_NAME).withRowCache(directory),
+                new WorksheetSpec(ExcelModuleDemoToDoItemSummary.class, SHEET_NAME)
+                        .withRowCache(temporaryFolder.newFolder())));
+    }
+
+    private byte[] export(final String prefix) {
+        return excelService.toExcel(
+                new WorksheetContent(
+                        new ExcelConverterIntegTest.Summaries(prefix, 20),
+                        new WorksheetSpec(ExcelModuleDemoToDoItemSummary.class, SHEET_NAME)),
+                "summaries.xlsx").getBytes();
+    }
+
+    /**
+     * The row number and values of each row of the sheet, as read through a {@link CachingWorkbookReader}.
+     */
+    private List<List<Object>> read(final byte[] bs, final String fingerprint) throws Exception {
+        final String digest = Hashing.sha256().hashBytes(bs).toString();
+        final CachingWorkbookReader.Opener opener = new CachingWorkbookReader.Opener() {
+            @Override
+            public WorkbookReader open() throws IOException, InvalidFormatException {
+                timesOpened++;
+                return UserModelWorkbookReader.open(bs);
+            }
+        };
+        final List<List<Object>> rows = Lists.newArrayList();
+        try (CachingWorkbookReader workbookReader = new CachingWorkbookReader(directory, digest, opener);
+             SheetReader sheetReader =
+                     workbookReader.openSheet(SHEET_NAME, ExcelModuleDemoToDoItemSummary.class, fingerprint)) {
+            while (sheetReader.hasNext()) {
+                final SheetRow sheetRow = sheetReader.next();
+                final List<Object> row = Lists.<Object>newArrayList(sheetRow.getRowNum());
+                for (int columnIndex = 0; columnIndex < sheetRow.getNumColumns(); columnIndex++) {
+                    row.add(sheetRow.getValue(columnIndex));
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private File rowsFile() {
+        final File[] rowsFiles = directory.listFiles();
+        File rowsFile = null;
+        for (final File file : rowsFiles) {
+            if(file.getName().endsWith(".rows")) {
+                assertThat(rowsFile == null, is(true));
+                rowsFile = file;
+            }
+        }
+        assertThat(rowsFile != null, is(true));
+        return rowsFile;
+    }
+
+}
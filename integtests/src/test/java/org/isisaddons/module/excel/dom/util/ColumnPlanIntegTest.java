@@ -0,0 +1,496 @@
+/*
+ *  Copyright 2015 Jeroen van der Wal
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.apache.isis.applib.annotation.Optionality;
+import org.apache.isis.applib.annotation.Property;
+import org.apache.isis.applib.annotation.PropertyLayout;
+import org.apache.isis.applib.services.title.TitleService;
+import org.apache.isis.applib.value.Blob;
+import org.apache.isis.core.metamodel.specloader.SpecificationLoader;
+import org.apache.isis.core.runtime.system.session.IsisSessionFactory;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.WorksheetContent;
+import org.isisaddons.module.excel.dom.WorksheetSpec;
+import org.isisaddons.module.excel.fixture.app.ExcelModuleDemoToDoItemBulkUpdateLineItem;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItems;
+import org.isisaddons.module.excel.fixture.scripts.ExcelModuleDemoToDoItemRowHandler;
+import org.isisaddons.module.excel.fixture.scripts.RecreateToDoItems;
+import org.isisaddons.module.excel.fixture.viewodels.ExcelModuleDemoToDoItemSummary;
+import org.isisaddons.module.excel.fixture.viewodels.ExcelModuleDemoToDoItemSummaryWithCallback;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+import org.isisaddons.module.excel.integtests.PlainSetters;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ColumnPlanIntegTest extends ExcelModuleModuleIntegTest {
+
+    @Before
+    public void setUpData() throws Exception {
+        scenarioExecution().install(new RecreateToDoItems());
+    }
+
+    @Inject
+    private ExcelService excelService;
+
+    @Inject
+    private ExcelModuleDemoToDoItems toDoItems;
+
+    @Inject
+    private IsisSessionFactory isisSessionFactory;
+
+    @Inject
+    private TitleService titleService;
+
+    @Rule
+    public PlainSetters plainSetters = new PlainSetters();
+
+    @Test
+    public void plan_is_reused_while_the_specification_is_unchanged() throws Exception {
+
+        // given
+        final SpecificationLoader specificationLoader = isisSessionFactory.getSpecificationLoader();
+        final ColumnPlan plan = ColumnPlan.of(Reloadable.class, specificationLoader);
+
+        // when
+        final ColumnPlan again = ColumnPlan.of(Reloadable.class, specificationLoader);
+
+        // then
+        assertThat(again, is(sameInstance(plan)));
+    }
+
+    @Test
+    public void plan_is_rebuilt_once_the_specification_has_changed() throws Exception {
+
+        // given
+        final SpecificationLoader specificationLoader = isisSessionFactory.getSpecificationLoader();
+        final ColumnPlan plan = ColumnPlan.of(Reloadable.class, specificationLoader);
+
+        // when (as happens when the class is reloaded)
+        specificationLoader.invalidateCache(Reloadable.class);
+        final ColumnPlan rebuilt = ColumnPlan.of(Reloadable.class, specificationLoader);
+
+        // then
+        assertThat(rebuilt.getObjectSpecification(), is(not(sameInstance(plan.getObjectSpecification()))));
+        assertThat(rebuilt.getObjectSpecification(), is(sameInstance(specificationLoader.loadSpecification(Reloadable.class))));
+        assertThat(rebuilt, is(not(sameInstance(plan))));
+    }
+
+    @Test
+    public void value_columns_are_written_by_the_writer_for_their_declared_type() throws Exception {
+
+        // when
+        final ColumnPlan plan = ColumnPlan.of(ExcelModuleDemoToDoItem.class, isisSessionFactory.getSpecificationLoader());
+
+        // then
+        assertThat(valueWriterFor(plan, "description"), is(CellMarshaller.ValueWriter.STRING));
+        assertThat(valueWriterFor(plan, "dueBy"), is(CellMarshaller.ValueWriter.LOCAL_DATE));
+        assertThat(valueWriterFor(plan, "category"), is(CellMarshaller.ValueWriter.ENUM));
+        assertThat(valueWriterFor(plan, "complete"), is(CellMarshaller.ValueWriter.BOOLEAN));
+        assertThat(valueWriterFor(plan, "cost"), is(CellMarshaller.ValueWriter.NUMBER));
+    }
+
+    @Test
+    public void writer_is_chosen_from_the_declared_type() throws Exception {
+        assertThat(CellMarshaller.ValueWriter.forType(int.class), is(CellMarshaller.ValueWriter.NUMBER));
+        assertThat(CellMarshaller.ValueWriter.forType(java.sql.Timestamp.class), is(CellMarshaller.ValueWriter.DATE));
+        assertThat(CellMarshaller.ValueWriter.forType(ExcelModuleDemoToDoItem.Category.class), is(CellMarshaller.ValueWriter.ENUM));
+
+        // not specific enough
+        assertThat(CellMarshaller.ValueWriter.forType(Number.class), is(CellMarshaller.ValueWriter.DYNAMIC));
+        assertThat(CellMarshaller.ValueWriter.forType(Object.class), is(CellMarshaller.ValueWriter.DYNAMIC));
+    }
+
+    @Test
+    public void properties_that_post_domain_events_are_not_set_directly() throws Exception {
+        // by default, every property posts a domain event when set
+        final ColumnPlan plan = ColumnPlan.of(
+                ExcelModuleDemoToDoItemSummary.class, isisSessionFactory.getSpecificationLoader());
+        assertThat(plan.getColumns().size(), is(greaterThan(0)));
+        for (final ColumnPlan.Column column : plan.getColumns()) {
+            assertThat(column.getName(), column.getSetter(), is(nullValue()));
+        }
+
+        plainSetters.install(ExcelModuleDemoToDoItemSummary.class);
+        final ColumnPlan reintrospectedPlan = ColumnPlan.of(
+                ExcelModuleDemoToDoItemSummary.class, isisSessionFactory.getSpecificationLoader());
+        for (final ColumnPlan.Column column : reintrospectedPlan.getColumns()) {
+            assertThat(column.getName(), column.getSetter(), is(not(nullValue())));
+        }
+    }
+
+    @Test
+    public void only_declarative_view_models_without_callbacks_are_directly_populatable() throws Exception {
+        plainSetters.install(ExcelModuleDemoToDoItemSummary.class);
+        plainSetters.install(ExcelModuleDemoToDoItemSummaryWithCallback.class);
+        plainSetters.install(ExcelModuleDemoToDoItemBulkUpdateLineItem.class);
+
+        assertThat(isDirectlyPopulatable(ExcelModuleDemoToDoItemSummary.class), is(true));
+        assertThat(isDirectlyPopulatable(ExcelModuleDemoToDoItemSummaryWithCallback.class), is(false));
+
+        // implements ViewModel, so its memento is its own
+        assertThat(isDirectlyPopulatable(ExcelModuleDemoToDoItemBulkUpdateLineItem.class), is(false));
+
+        // entity
+        assertThat(isDirectlyPopulatable(ExcelModuleDemoToDoItem.class), is(false));
+    }
+
+    @Test
+    public void directly_populated_and_templated_view_models_are_the_same() throws Exception {
+
+        // given
+        plainSetters.install(ExcelModuleDemoToDoItemSummary.class);
+        plainSetters.install(ExcelModuleDemoToDoItemSummaryWithCallback.class);
+        assertThat(isDirectlyPopulatable(ExcelModuleDemoToDoItemSummary.class), is(true));
+        assertThat(isDirectlyPopulatable(ExcelModuleDemoToDoItemSummaryWithCallback.class), is(false));
+
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final Blob blob = excelService.toExcel(
+                new WorksheetContent(items, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "toDoItems")),
+                "toDoItems.xlsx");
+
+        // when
+        final List<ExcelModuleDemoToDoItemSummary> direct = excelService.fromExcel(
+                blob, new WorksheetSpec(ExcelModuleDemoToDoItemSummary.class, "toDoItems"));
+        final List<ExcelModuleDemoToDoItemSummaryWithCallback> templated = excelService.fromExcel(
+                blob, new WorksheetSpec(ExcelModuleDemoToDoItemSummaryWithCallback.class, "toDoItems"));
+
+        // then
+        assertThat(direct.size(), is(greaterThan(0)));
+        assertThat(direct.size(), is(items.size()));
+        assertThat(templated.size(), is(direct.size()));
+        for (int i = 0; i < direct.size(); i++) {
+            final ExcelModuleDemoToDoItemSummary expected = templated.get(i);
+            final ExcelModuleDemoToDoItemSummary actual = direct.get(i);
+            assertThat(actual.getDescription(), is(expected.getDescription()));
+            assertThat(actual.getCategory(), is(expected.getCategory()));
+            assertThat(actual.getSubcategory(), is(expected.getSubcategory()));
+            assertThat(actual.getOwnedBy(), is(expected.getOwnedBy()));
+            assertThat(actual.getDueBy(), is(expected.getDueBy()));
+            assertThat(actual.isComplete(), is(expected.isComplete()));
+            assertThat(actual.getCost(), is(expected.getCost()));
+            assertThat(actual.getNotes(), is(expected.getNotes()));
+
+            assertThat(actual.getDescription(), is(items.get(i).getDescription()));
+        }
+    }
+
+    @Test
+    public void plain_objects_with_defaults_are_not_directly_populatable() throws Exception {
+        assertThat(isDirectlyPopulatablePlainObject(ExcelModuleDemoToDoItemRowHandler.class), is(true));
+        assertThat(isDirectlyPopulatablePlainObject(PlainToDoItemWithDefault.class), is(false));
+
+        assertThat(isDirectlyPopulatablePlainObject(ExcelModuleDemoToDoItemSummary.class), is(false));
+        assertThat(isDirectlyPopulatablePlainObject(ExcelModuleDemoToDoItem.class), is(false));
+    }
+
+    @Test
+    public void plain_objects_are_directly_populated_only_if_requested() throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final Blob blob = excelService.toExcel(
+                new WorksheetContent(items, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "toDoItems")),
+                "toDoItems.xlsx");
+        final WorksheetSpec spec = new WorksheetSpec(ExcelModuleDemoToDoItemRowHandler.class, "toDoItems");
+
+        // when (by default, every property posts a domain event when set)
+        final List<ExcelModuleDemoToDoItemRowHandler> notPlain = excelService.fromExcel(
+                blob, spec.withDirectPopulation());
+
+        plainSetters.install(ExcelModuleDemoToDoItemRowHandler.class);
+        final List<ExcelModuleDemoToDoItemRowHandler> direct = excelService.fromExcel(
+                blob, spec.withDirectPopulation());
+        final List<ExcelModuleDemoToDoItemRowHandler> templated = excelService.fromExcel(blob, spec);
+
+        // then
+        assertThat(direct.size(), is(items.size()));
+        assertThat(templated.size(), is(items.size()));
+        assertThat(notPlain.size(), is(items.size()));
+        for (int i = 0; i < direct.size(); i++) {
+            assertThat(direct.get(i).getDescription(), is(items.get(i).getDescription()));
+            assertThat(direct.get(i).getCategory(), is(items.get(i).getCategory()));
+            assertThat(direct.get(i).getCost(), is(templated.get(i).getCost()));
+
+            assertThat(hasAdapter(direct.get(i)), is(false));
+            assertThat(hasAdapter(templated.get(i)), is(true));
+            assertThat(hasAdapter(notPlain.get(i)), is(true));
+        }
+    }
+
+    @Test
+    public void plain_objects_with_defaults_are_defaulted() throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final Blob blob = excelService.toExcel(
+                new WorksheetContent(items, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "toDoItems")),
+                "toDoItems.xlsx");
+
+        // when
+        final List<PlainToDoItemWithDefault> imported = excelService.fromExcel(
+                blob, new WorksheetSpec(PlainToDoItemWithDefault.class, "toDoItems").withDirectPopulation());
+
+        // then
+        assertThat(imported.size(), is(items.size()));
+        for (int i = 0; i < imported.size(); i++) {
+            assertThat(imported.get(i).getDescription(), is(items.get(i).getDescription()));
+            // not in the spreadsheet
+            assertThat(imported.get(i).getPriority(), is("normal"));
+        }
+    }
+
+    public static class PlainToDoItemWithDefault {
+
+        private String description;
+
+        public String getDescription() {
+            return description;
+        }
+
+        public void setDescription(final String description) {
+            this.description = description;
+        }
+
+        private String priority;
+
+        @Property(optionality = Optionality.MANDATORY)
+        public String getPriority() {
+            return priority;
+        }
+
+        public void setPriority(final String priority) {
+            this.priority = priority;
+        }
+
+        public String defaultPriority() {
+            return "normal";
+        }
+    }
+
+    @Test
+    public void value_columns_are_read_through_their_getters_and_references_through_the_metamodel() throws Exception {
+        final ColumnPlan plan = ColumnPlan.of(WithReference.class, isisSessionFactory.getSpecificationLoader());
+        assertThat(plan.getColumn("name").getGetter(), is(not(nullValue())));
+        assertThat(plan.getColumn("toDoItem").getGetter(), is(nullValue()));
+    }
+
+    @Test
+    public void rows_are_adapted_only_if_any_column_is_read_through_the_metamodel() throws Exception {
+
+        // given
+        final ExcelModuleDemoToDoItem toDoItem = toDoItems.allInstances().get(0);
+        final ValuesOnly valuesOnly = new ValuesOnly();
+        valuesOnly.setName("Fred");
+        final WithReference withReference = new WithReference();
+        withReference.setName("Mary");
+        withReference.setToDoItem(toDoItem);
+
+        // when
+        final Blob valuesOnlyBlob = excelService.toExcel(
+                new WorksheetContent(Arrays.asList(valuesOnly), new WorksheetSpec(ValuesOnly.class, "values")),
+                "values.xlsx");
+        final Blob withReferenceBlob = excelService.toExcel(
+                new WorksheetContent(Arrays.asList(withReference), new WorksheetSpec(WithReference.class, "refs")),
+                "refs.xlsx");
+
+        // then
+        assertThat(hasAdapter(valuesOnly), is(false));
+        assertThat(hasAdapter(withReference), is(true));
+
+        assertThat(cellValue(valuesOnlyBlob, "values", "Name"), is("Fred"));
+        assertThat(cellValue(withReferenceBlob, "refs", "Name"), is("Mary"));
+        assertThat(cellValue(withReferenceBlob, "refs", "To Do Item"), is(titleService.titleOf(toDoItem)));
+    }
+
+    private static String cellValue(final Blob blob, final String sheetName, final String header) throws IOException {
+        final XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(blob.getBytes()));
+        final Sheet sheet = workbook.getSheet(sheetName);
+        final Row headerRow = sheet.getRow(0);
+        for (int i = 0; i < headerRow.getLastCellNum(); i++) {
+            if(headerRow.getCell(i).getStringCellValue().equals(header)) {
+                return sheet.getRow(1).getCell(i).getStringCellValue();
+            }
+        }
+        throw new IllegalArgumentException(String.format("No column headed '%s'", header));
+    }
+
+    public static class ValuesOnly {
+
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(final String name) {
+            this.name = name;
+        }
+    }
+
+    public static class WithReference extends ValuesOnly {
+
+        private ExcelModuleDemoToDoItem toDoItem;
+
+        public ExcelModuleDemoToDoItem getToDoItem() {
+            return toDoItem;
+        }
+
+        public void setToDoItem(final ExcelModuleDemoToDoItem toDoItem) {
+            this.toDoItem = toDoItem;
+        }
+    }
+
+    @Test
+    public void headers_matching_more_than_one_property_are_reported() throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final Blob blob = excelService.toExcel(
+                new WorksheetContent(items, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "toDoItems")),
+                "toDoItems.xlsx");
+
+        // when
+        try {
+            excelService.fromExcel(blob, new WorksheetSpec(AmbiguousToDoItem.class, "toDoItems"));
+            fail();
+        } catch (final ExcelService.Exception ex) {
+            // then
+            assertThat(ex.getMessage(), containsString("Header 'Description' is ambiguous"));
+            assertThat(ex.getMessage(), containsString("[description, summary]"));
+        }
+    }
+
+    @Test
+    public void value_columns_are_read_by_the_reader_for_their_declared_type() throws Exception {
+
+        // when
+        final ColumnPlan plan = ColumnPlan.of(ExcelModuleDemoToDoItem.class, isisSessionFactory.getSpecificationLoader());
+
+        // then
+        assertThat(plan.getColumn("description").getValueReader(), is(CellMarshaller.ValueReader.STRING));
+        assertThat(plan.getColumn("dueBy").getValueReader(), is(CellMarshaller.ValueReader.LOCAL_DATE));
+        assertThat(plan.getColumn("complete").getValueReader(), is(CellMarshaller.ValueReader.BOOLEAN));
+        assertThat(plan.getColumn("cost").getValueReader(), is(CellMarshaller.ValueReader.BIG_DECIMAL));
+    }
+
+    @Test
+    public void values_of_each_type_survive_export_and_import() throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final Blob blob = excelService.toExcel(
+                new WorksheetContent(items, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "toDoItems")),
+                "toDoItems.xlsx");
+
+        // when
+        final List<ExcelModuleDemoToDoItem> imported =
+                excelService.fromExcel(blob, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "toDoItems"));
+
+        // then
+        assertThat(imported.size(), is(items.size()));
+        for (int i = 0; i < imported.size(); i++) {
+            final ExcelModuleDemoToDoItem expected = items.get(i);
+            final ExcelModuleDemoToDoItem actual = imported.get(i);
+            assertThat(actual.getDescription(), is(expected.getDescription()));
+            assertThat(actual.getCategory(), is(expected.getCategory()));
+            assertThat(actual.getSubcategory(), is(expected.getSubcategory()));
+            assertThat(actual.getDueBy(), is(expected.getDueBy()));
+            assertThat(actual.isComplete(), is(expected.isComplete()));
+            assertThat(actual.getCost() == null
+                    ? expected.getCost() == null
+                    : actual.getCost().compareTo(expected.getCost()) == 0, is(true));
+        }
+    }
+
+    private static CellMarshaller.ValueWriter valueWriterFor(final ColumnPlan plan, final String header) {
+        return plan.getColumn(header).getValueWriter();
+    }
+
+    public static class Reloadable {
+
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(final String name) {
+            this.name = name;
+        }
+    }
+
+    public static class AmbiguousToDoItem {
+
+        private String description;
+
+        public String getDescription() {
+            return description;
+        }
+
+        public void setDescription(final String description) {
+            this.description = description;
+        }
+
+        private String summary;
+
+        @PropertyLayout(named = "Description")
+        public String getSummary() {
+            return summary;
+        }
+
+        public void setSummary(final String summary) {
+            this.summary = summary;
+        }
+    }
+
+    private boolean isDirectlyPopulatable(final Class<?> cls) {
+        return ColumnPlan.of(cls, isisSessionFactory.getSpecificationLoader()).isDirectlyPopulatableViewModel();
+    }
+
+    private boolean isDirectlyPopulatablePlainObject(final Class<?> cls) {
+        return ColumnPlan.of(cls, isisSessionFactory.getSpecificationLoader()).isDirectlyPopulatablePlainObject();
+    }
+
+    private boolean hasAdapter(final Object domainObject) {
+        return isisSessionFactory.getCurrentSession().getPersistenceSession().getAdapterFor(domainObject) != null;
+    }
+
+}
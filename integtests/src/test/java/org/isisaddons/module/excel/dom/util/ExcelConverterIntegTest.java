@@ -0,0 +1,282 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+
+import com.google.common.collect.Lists;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import org.apache.isis.applib.services.bookmark.BookmarkService;
+import org.apache.isis.applib.value.Blob;
+import org.apache.isis.core.runtime.system.session.IsisSessionFactory;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.WorksheetContent;
+import org.isisaddons.module.excel.dom.WorksheetSpec;
+import org.isisaddons.module.excel.fixture.viewodels.ExcelModuleDemoToDoItemSummary;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ExcelConverterIntegTest extends ExcelModuleModuleIntegTest {
+
+    @Inject
+    private ExcelService excelService;
+
+    @Inject
+    private BookmarkService bookmarkService;
+
+    @Inject
+    private IsisSessionFactory isisSessionFactory;
+
+    @Test
+    public void exports_more_rows_than_fit_in_a_short() throws Exception {
+
+        // given
+        final int numRows = Short.MAX_VALUE + 1000;
+        final WorksheetSpec spec = new WorksheetSpec(ExcelModuleDemoToDoItemSummary.class, "summaries").withStreaming();
+
+        // when
+        final Blob blob = excelService.toExcel(
+                new WorksheetContent(new Summaries("item", numRows), spec), "summaries.xlsx");
+
+        // then
+        final XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(blob.getBytes()));
+        final Sheet sheet = workbook.getSheet("summaries");
+        assertThat(sheet.getLastRowNum(), is(numRows));
+        final int descriptionColumn = columnOf(sheet.getRow(0), "Description");
+        assertThat(sheet.getRow(numRows).getCell(descriptionColumn).getStringCellValue(), is("item " + (numRows - 1)));
+    }
+
+    @Test
+    public void rolls_over_onto_further_sheets_repeating_the_header() throws Exception {
+
+        // given
+        final ExcelConverter excelConverter = newExcelConverter();
+        excelConverter.maxRowsPerSheet = 10;
+        final WorksheetSpec spec =
+                new WorksheetSpec(ExcelModuleDemoToDoItemSummary.class, "summaries").withStreaming().withRollover();
+
+        // when
+        final XSSFWorkbook workbook = export(excelConverter, new WorksheetContent(new Summaries("item", 25), spec));
+
+        // then: nine rows (after the header) per sheet
+        assertThat(workbook.getNumberOfSheets(), is(3));
+        assertSheet(workbook, 0, "summaries", "item", 0, 9);
+        assertSheet(workbook, 1, "summaries (2)", "item", 9, 9);
+        assertSheet(workbook, 2, "summaries (3)", "item", 18, 7);
+        assertSameHeaders(workbook, 0, 1);
+        assertSameHeaders(workbook, 0, 2);
+    }
+
+    @Test
+    public void fails_when_a_sheet_is_full_unless_rolling_over() throws Exception {
+
+        // given
+        final ExcelConverter excelConverter = newExcelConverter();
+        excelConverter.maxRowsPerSheet = 10;
+        final WorksheetSpec spec = new WorksheetSpec(ExcelModuleDemoToDoItemSummary.class, "summaries");
+
+        // when
+        try {
+            export(excelConverter, new WorksheetContent(new Summaries("item", 10), spec));
+            fail();
+        } catch (final IllegalArgumentException ex) {
+            // then
+            assertThat(ex.getMessage().contains("'summaries'"), is(true));
+        }
+    }
+
+    @Test
+    public void parallel_sheets_keep_their_order_when_rolled_over() throws Exception {
+
+        // given
+        final ExcelConverter excelConverter = newExcelConverter();
+        excelConverter.maxRowsPerSheet = 10;
+        final List<ExcelModuleDemoToDoItemSummary> listed = new Summaries("listed", 5).getPage(0, 5);
+
+        // when
+        final XSSFWorkbook workbook = export(
+                excelConverter,
+                new WorksheetContent(new Summaries("first", 25), parallelSpec("first")),
+                // flagged as parallel, but written sequentially as not paged
+                new WorksheetContent(listed, parallelSpec("listed")),
+                new WorksheetContent(new Summaries("last", 15), parallelSpec("last")));
+
+        // then
+        assertThat(workbook.getNumberOfSheets(), is(6));
+        assertSheet(workbook, 0, "first", "first", 0, 9);
+        assertSheet(workbook, 1, "first (2)", "first", 9, 9);
+        assertSheet(workbook, 2, "first (3)", "first", 18, 7);
+        assertSheet(workbook, 3, "listed", "listed", 0, 5);
+        assertSheet(workbook, 4, "last", "last", 0, 9);
+        assertSheet(workbook, 5, "last (2)", "last", 9, 6);
+        assertSameHeaders(workbook, 0, 2);
+        assertSameHeaders(workbook, 4, 5);
+    }
+
+    @Test
+    public void no_parallel_sheet_is_still_being_written_once_failed() throws Exception {
+
+        // given
+        final SlowSummaries slow = new SlowSummaries();
+        final WorksheetContent.PageSupplier<ExcelModuleDemoToDoItemSummary> failing =
+                new WorksheetContent.PageSupplier<ExcelModuleDemoToDoItemSummary>() {
+                    @Override
+                    public List<ExcelModuleDemoToDoItemSummary> getPage(final int start, final int count) {
+                        throw new IllegalStateException("failed");
+                    }
+                };
+
+        // when
+        try {
+            export(newExcelConverter(),
+                    new WorksheetContent(failing, parallelSpec("failing")),
+                    new WorksheetContent(slow, parallelSpec("slow")));
+            fail();
+        } catch (final Exception ex) {
+            // then
+            assertThat(slow.running.get(), is(false));
+        }
+    }
+
+    private static WorksheetSpec parallelSpec(final String sheetName) {
+        return new WorksheetSpec(ExcelModuleDemoToDoItemSummary.class, sheetName).withParallel().withRollover();
+    }
+
+    private ExcelConverter newExcelConverter() {
+        return new ExcelConverter(
+                isisSessionFactory.getSpecificationLoader(),
+                isisSessionFactory.getCurrentSession().getPersistenceSession(),
+                bookmarkService,
+                isisSessionFactory);
+    }
+
+    static XSSFWorkbook export(
+            final ExcelConverter excelConverter,
+            final WorksheetContent... worksheetContents) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        excelConverter.appendSheet(Lists.newArrayList(worksheetContents), baos);
+        return new XSSFWorkbook(new ByteArrayInputStream(baos.toByteArray()));
+    }
+
+    /**
+     * Asserts the name of the sheet, and that it holds the header followed by the items described
+     * <tt>prefix first</tt>, <tt>prefix first+1</tt> and so on.
+     */
+    static void assertSheet(
+            final XSSFWorkbook workbook,
+            final int sheetIndex,
+            final String sheetName,
+            final String prefix,
+            final int first,
+            final int numRows) {
+        final Sheet sheet = workbook.getSheetAt(sheetIndex);
+        assertThat(sheet.getSheetName(), is(sheetName));
+        assertThat(sheet.getLastRowNum(), is(numRows));
+        final int descriptionColumn = columnOf(sheet.getRow(0), "Description");
+        for (int i = 0; i < numRows; i++) {
+            final Row row = sheet.getRow(i + 1);
+            assertThat(row.getCell(descriptionColumn).getStringCellValue(), is(prefix + " " + (first + i)));
+        }
+    }
+
+    static void assertSameHeaders(final XSSFWorkbook workbook, final int sheetIndex, final int otherSheetIndex) {
+        assertThat(headersOf(workbook.getSheetAt(otherSheetIndex)), is(headersOf(workbook.getSheetAt(sheetIndex))));
+    }
+
+    private static List<String> headersOf(final Sheet sheet) {
+        final List<String> headers = Lists.newArrayList();
+        final Row headerRow = sheet.getRow(0);
+        for (int i = 0; i < headerRow.getLastCellNum(); i++) {
+            headers.add(headerRow.getCell(i).getStringCellValue());
+        }
+        return headers;
+    }
+
+    private static int columnOf(final Row headerRow, final String header) {
+        for (int i = 0; i < headerRow.getLastCellNum(); i++) {
+            if(headerRow.getCell(i).getStringCellValue().equals(header)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(String.format("No column headed '%s'", header));
+    }
+
+    /**
+     * Supplies pages of summaries indefinitely, slowly, until interrupted.
+     */
+    static class SlowSummaries implements WorksheetContent.PageSupplier<ExcelModuleDemoToDoItemSummary> {
+
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        @Override
+        public List<ExcelModuleDemoToDoItemSummary> getPage(final int start, final int count) {
+            running.set(true);
+            try {
+                Thread.sleep(100);
+                return new Summaries("slow", Integer.MAX_VALUE).getPage(start, count);
+            } catch (final InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            } finally {
+                running.set(false);
+            }
+        }
+    }
+
+    /**
+     * Supplies summaries described <tt>prefix 0</tt>, <tt>prefix 1</tt> and so on, without ever holding them all.
+     */
+    static class Summaries implements WorksheetContent.PageSupplier<ExcelModuleDemoToDoItemSummary> {
+
+        private final String prefix;
+        private final int numRows;
+
+        Summaries(final String prefix, final int numRows) {
+            this.prefix = prefix;
+            this.numRows = numRows;
+        }
+
+        @Override
+        public List<ExcelModuleDemoToDoItemSummary> getPage(final int start, final int count) {
+            if(start >= numRows) {
+                return Collections.emptyList();
+            }
+            final List<ExcelModuleDemoToDoItemSummary> page = Lists.newArrayList();
+            for (int i = start; i < Math.min(start + count, numRows); i++) {
+                final ExcelModuleDemoToDoItemSummary summary = new ExcelModuleDemoToDoItemSummary();
+                summary.setDescription(prefix + " " + i);
+                page.add(summary);
+            }
+            return page;
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ *  Copyright 2015 Jeroen van der Wal
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.dom.util;
+
+import java.util.List;
+
+import javax.inject.Inject;
+
+import com.google.common.collect.Lists;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.isis.applib.services.bookmark.BookmarkService;
+import org.apache.isis.core.metamodel.adapter.mgr.AdapterManager;
+import org.apache.isis.core.runtime.system.session.IsisSessionFactory;
+
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItems;
+import org.isisaddons.module.excel.fixture.scripts.RecreateToDoItems;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ReferenceCacheIntegTest extends ExcelModuleModuleIntegTest {
+
+    @Before
+    public void setUpData() throws Exception {
+        scenarioExecution().install(new RecreateToDoItems());
+    }
+
+    @Inject
+    private ExcelModuleDemoToDoItems toDoItems;
+
+    @Inject
+    private BookmarkService bookmarkService;
+
+    @Inject
+    private IsisSessionFactory isisSessionFactory;
+
+    @Test
+    public void each_referenced_object_is_titled_and_bookmarked_once() throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final ExcelModuleDemoToDoItem first = items.get(0);
+        final ExcelModuleDemoToDoItem second = items.get(1);
+        final ReferenceCache referenceCache = new ReferenceCache();
+
+        // when
+        final List<Row> rows = write(referenceCache, first, second, first, first, second);
+
+        // then
+        assertThat(referenceCache.getMissCount(), is(2L));
+        assertThat(referenceCache.getHitCount(), is(3L));
+        assertThat(rows.get(3).getCell(0).getStringCellValue(), is(first.title()));
+        assertThat(rows.get(3).getCell(1).getStringCellValue(), is(bookmarkService.bookmarkFor(first).toString()));
+        assertThat(rows.get(4).getCell(0).getStringCellValue(), is(second.title()));
+    }
+
+    @Test
+    public void evicted_references_are_obtained_again() throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final ReferenceCache referenceCache = new ReferenceCache(1);
+
+        // when
+        write(referenceCache, items.get(0), items.get(1), items.get(0));
+
+        // then
+        assertThat(referenceCache.getMissCount(), is(3L));
+        assertThat(referenceCache.getHitCount(), is(0L));
+    }
+
+    /**
+     * Writes a row (title and then bookmark) for each referenced item.
+     */
+    private List<Row> write(
+            final ReferenceCache referenceCache,
+            final ExcelModuleDemoToDoItem... referencedItems) {
+        final XSSFWorkbook workbook = new XSSFWorkbook();
+        final Sheet sheet = workbook.createSheet();
+        final CellMarshaller cellMarshaller =
+                new CellMarshaller(bookmarkService, workbook.createCellStyle(), referenceCache);
+        final ColumnPlan.Column column = ColumnPlan.of(Referrer.class, isisSessionFactory.getSpecificationLoader())
+                .getColumn("toDoItem");
+        final AdapterManager adapterManager = isisSessionFactory.getCurrentSession().getPersistenceSession();
+        final List<Row> rows = Lists.newArrayList();
+        for (final ExcelModuleDemoToDoItem referencedItem : referencedItems) {
+            final Referrer referrer = new Referrer();
+            referrer.setToDoItem(referencedItem);
+            final Row row = sheet.createRow(rows.size());
+            cellMarshaller.setCellValue(adapterManager.adapterFor(referrer), column, row.createCell(0), 1);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    public static class Referrer {
+
+        private ExcelModuleDemoToDoItem toDoItem;
+
+        public ExcelModuleDemoToDoItem getToDoItem() {
+            return toDoItem;
+        }
+
+        public void setToDoItem(final ExcelModuleDemoToDoItem toDoItem) {
+            this.toDoItem = toDoItem;
+        }
+    }
+
+}
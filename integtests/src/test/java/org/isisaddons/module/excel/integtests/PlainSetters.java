@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2015 Jeroen van der Wal
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.integtests;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import org.junit.rules.ExternalResource;
+
+import org.apache.isis.core.metamodel.facets.properties.property.modify.PropertyDomainEventFacet;
+import org.apache.isis.core.metamodel.facets.properties.update.modify.PropertySetterFacet;
+import org.apache.isis.core.metamodel.facets.properties.update.modify.PropertySetterFacetViaSetterMethod;
+import org.apache.isis.core.metamodel.spec.ObjectSpecification;
+import org.apache.isis.core.metamodel.spec.feature.Contributed;
+import org.apache.isis.core.metamodel.spec.feature.OneToOneAssociation;
+import org.apache.isis.core.metamodel.specloader.SpecificationLoader;
+import org.apache.isis.core.runtime.system.context.IsisContext;
+
+/**
+ * Reintrospects classes so that (some of) their properties are set by the metamodel just by calling their setters,
+ * rather than also posting a domain event (as is the default); the classes are reintrospected again afterwards.
+ */
+public class PlainSetters extends ExternalResource {
+
+    private final List<Class<?>> reintrospected = Lists.newArrayList();
+
+    /**
+     * @param propertyIds the properties to make plain; if none, then every property that has a setter.
+     */
+    public void install(final Class<?> cls, final String... propertyIds) throws NoSuchMethodException {
+        final SpecificationLoader specificationLoader = specificationLoader();
+        specificationLoader.invalidateCache(cls);
+        reintrospected.add(cls);
+        final ObjectSpecification spec = specificationLoader.loadSpecification(cls);
+        for (final OneToOneAssociation property : spec.getProperties(Contributed.EXCLUDED)) {
+            final String id = property.getId();
+            if (propertyIds.length > 0 ? !Arrays.asList(propertyIds).contains(id)
+                                       : property.getFacet(PropertySetterFacet.class) == null) {
+                continue;
+            }
+            final Method setter = cls.getMethod(
+                    "set" + Character.toUpperCase(id.charAt(0)) + id.substring(1),
+                    property.getSpecification().getCorrespondingClass());
+            property.removeFacet(PropertyDomainEventFacet.class);
+            property.removeFacet(PropertySetterFacet.class);
+            property.addFacet(new PropertySetterFacetViaSetterMethod(setter, property));
+        }
+    }
+
+    @Override
+    protected void after() {
+        for (final Class<?> cls : reintrospected) {
+            specificationLoader().invalidateCache(cls);
+        }
+    }
+
+    private static SpecificationLoader specificationLoader() {
+        return IsisContext.getSessionFactory().getSpecificationLoader();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.integtests.dom;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.isis.applib.value.Blob;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.WorksheetContent;
+import org.isisaddons.module.excel.dom.WorksheetSpec;
+import org.isisaddons.module.excel.fixture.app.ExcelModuleDemoToDoItemBulkUpdateLineItem;
+import org.isisaddons.module.excel.fixture.app.ExcelModuleDemoToDoItemBulkUpdateManager;
+import org.isisaddons.module.excel.fixture.app.ExcelModuleDemoToDoItemBulkUpdateMenu;
+import org.isisaddons.module.excel.fixture.scripts.RecreateToDoItems;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Exports references as hidden bookmark columns (rather than as comments), and imports them back.
+ */
+public class BookmarkColumnsIntegTest extends ExcelModuleModuleIntegTest {
+
+    @Before
+    public void setUpData() throws Exception {
+        scenarioExecution().install(new RecreateToDoItems());
+    }
+
+    @Inject
+    private ExcelService excelService;
+
+    @Inject
+    private ExcelModuleDemoToDoItemBulkUpdateMenu exportImportService;
+
+    @Test
+    public void round_trip() throws Exception {
+
+        // given
+        final WorksheetSpec spec = ExcelModuleDemoToDoItemBulkUpdateManager.WORKSHEET_SPEC;
+        final ExcelModuleDemoToDoItemBulkUpdateManager bulkUpdateManager = exportImportService.bulkUpdateManager();
+        final List<ExcelModuleDemoToDoItemBulkUpdateLineItem> lineItems =
+                excelService.fromExcel(bulkUpdateManager.export(), spec);
+        assertThat(lineItems.size(), is(greaterThan(0)));
+
+        // when
+        final Blob blob = excelService.toExcel(
+                new WorksheetContent(lineItems, spec.withBookmarkColumns()), "line-items.xlsx");
+
+        // then the bookmarks are held in a hidden column, and not as comments
+        final XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(blob.getBytes()));
+        final Sheet sheet = workbook.getSheet("line-items");
+        final Row headerRow = sheet.getRow(0);
+        int bookmarkColumn = -1;
+        for (final Cell cell : headerRow) {
+            if(cell.getStringCellValue().endsWith(" [bookmark]")) {
+                assertThat(bookmarkColumn, is(-1));
+                bookmarkColumn = cell.getColumnIndex();
+            }
+        }
+        assertThat(bookmarkColumn, is(greaterThan(0)));
+        assertThat(sheet.isColumnHidden(bookmarkColumn), is(true));
+        for (int rowNum = 1; rowNum <= sheet.getLastRowNum(); rowNum++) {
+            final Row row = sheet.getRow(rowNum);
+            assertThat(row.getCell(bookmarkColumn).getStringCellValue().isEmpty(), is(false));
+            for (final Cell cell : row) {
+                assertThat(cell.getCellComment(), is(nullValue()));
+            }
+        }
+
+        // and when imported back (whether or not the spec asks for bookmark columns)
+        final List<ExcelModuleDemoToDoItemBulkUpdateLineItem> imported =
+                excelService.fromExcel(blob, spec);
+
+        // then the references are restored
+        assertThat(imported.size(), is(lineItems.size()));
+        for (int i = 0; i < imported.size(); i++) {
+            assertThat(imported.get(i).getToDoItem(), is(notNullValue()));
+            assertThat(imported.get(i).getToDoItem(), is(lineItems.get(i).getToDoItem()));
+            assertThat(imported.get(i).getDescription(), is(lineItems.get(i).getDescription()));
+        }
+    }
+
+}
@@ -0,0 +1,352 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.integtests.dom;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.isis.applib.fixturescripts.FixtureScript;
+import org.apache.isis.applib.value.Blob;
+
+import org.isisaddons.module.excel.dom.ExcelFixture;
+import org.isisaddons.module.excel.dom.ExcelFixtureBatchRowHandler;
+import org.isisaddons.module.excel.dom.ExcelFixtureRowHandler;
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.WorksheetContent;
+import org.isisaddons.module.excel.dom.WorksheetSpec;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItems;
+import org.isisaddons.module.excel.fixture.scripts.RecreateToDoItems;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Runs {@link ExcelFixture}s whose rows are handled one at a time or a batch at a time.
+ */
+public class ExcelFixtureIntegTest extends ExcelModuleModuleIntegTest {
+
+    private static final int BATCH_SIZE = 3;
+
+    @Inject
+    private ExcelService excelService;
+
+    @Inject
+    private ExcelModuleDemoToDoItems toDoItems;
+
+    private List<String> descriptions;
+    private Blob blob;
+
+    @Before
+    public void setUp() throws Exception {
+        scenarioExecution().install(new RecreateToDoItems());
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        descriptions = descriptionsOf(items);
+        assertThat(descriptions.size(), is(greaterThan(BATCH_SIZE)));
+
+        // sheets named after the row handlers (less their suffix)
+        blob = excelService.toExcel(Arrays.asList(
+                new WorksheetContent(items, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "Recording")),
+                new WorksheetContent(items, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "RecordingBatch"))),
+                "toDoItems.xlsx");
+
+        RecordingRowHandler.DESCRIPTIONS.clear();
+        RecordingBatchRowHandler.BATCHES.clear();
+    }
+
+    @Test
+    public void row_handler_is_given_each_row_by_default() throws Exception {
+
+        // given
+        final ExcelFixture excelFixture = new ExcelFixture(blob, RecordingRowHandler.class);
+
+        // when
+        scenarioExecution().install(excelFixture);
+
+        // then
+        assertThat(RecordingRowHandler.DESCRIPTIONS, is(descriptions));
+        assertThat(excelFixture.getObjects().size(), is(descriptions.size()));
+    }
+
+    @Test
+    public void row_handler_is_given_each_row_whatever_the_batch_size() throws Exception {
+
+        // given
+        final ExcelFixture excelFixture = new ExcelFixture(blob, RecordingRowHandler.class);
+        excelFixture.setBatchSize(BATCH_SIZE);
+
+        // when
+        scenarioExecution().install(excelFixture);
+
+        // then (including the previous row, across batches)
+        assertThat(RecordingRowHandler.DESCRIPTIONS, is(descriptions));
+        assertThat(excelFixture.getObjectsByClass().get(RecordingRowHandler.class).size(), is(descriptions.size()));
+        assertThat(excelFixture.getObjects().size(), is(descriptions.size()));
+    }
+
+    @Test
+    public void rows_are_handled_the_same_when_each_batch_is_committed() throws Exception {
+
+        // given
+        final ExcelFixture excelFixture = new ExcelFixture(blob, RecordingRowHandler.class);
+        excelFixture.setBatchSize(BATCH_SIZE);
+        excelFixture.setCommitPerBatch(true);
+
+        // when
+        scenarioExecution().install(excelFixture);
+
+        // then (the commits themselves aren't visible, the test running within a transaction of its own)
+        assertThat(RecordingRowHandler.DESCRIPTIONS, is(descriptions));
+        assertThat(excelFixture.getObjects().size(), is(descriptions.size()));
+    }
+
+    @Test
+    public void objects_can_be_discarded_once_each_batch_is_handled() throws Exception {
+
+        // given
+        final ExcelFixture excelFixture = new ExcelFixture(blob, RecordingRowHandler.class);
+        excelFixture.setBatchSize(BATCH_SIZE);
+        excelFixture.setDiscardObjects(true);
+
+        // when
+        scenarioExecution().install(excelFixture);
+
+        // then
+        assertThat(RecordingRowHandler.DESCRIPTIONS, is(descriptions));
+        assertThat(excelFixture.getObjects().isEmpty(), is(true));
+        assertThat(excelFixture.getObjectsByClass().isEmpty(), is(true));
+    }
+
+    @Test
+    public void objects_are_kept_without_a_batch_size_even_if_discarding() throws Exception {
+
+        // given
+        final ExcelFixture excelFixture = new ExcelFixture(blob, RecordingRowHandler.class);
+        excelFixture.setDiscardObjects(true);
+
+        // when
+        scenarioExecution().install(excelFixture);
+
+        // then
+        assertThat(excelFixture.getObjects().size(), is(descriptions.size()));
+    }
+
+    @Test
+    public void batch_handler_is_given_the_whole_sheet_by_default() throws Exception {
+
+        // given
+        final ExcelFixture excelFixture = new ExcelFixture(blob, RecordingBatchRowHandler.class);
+
+        // when
+        scenarioExecution().install(excelFixture);
+
+        // then
+        assertThat(RecordingBatchRowHandler.BATCHES.size(), is(1));
+        assertThat(RecordingBatchRowHandler.BATCHES.get(0).descriptions, is(descriptions));
+        assertThat(excelFixture.getObjects().size(), is(descriptions.size()));
+    }
+
+    @Test
+    public void batch_handler_is_given_batches_of_the_batch_size() throws Exception {
+
+        // given
+        final ExcelFixture excelFixture = new ExcelFixture(blob, RecordingBatchRowHandler.class);
+        excelFixture.setBatchSize(BATCH_SIZE);
+
+        // when
+        scenarioExecution().install(excelFixture);
+
+        // then
+        final List<String> batchedDescriptions = Lists.newArrayList();
+        final List<Batch> batches = RecordingBatchRowHandler.BATCHES;
+        assertThat(batches.size(), is((descriptions.size() + BATCH_SIZE - 1) / BATCH_SIZE));
+        for (int i = 0; i < batches.size(); i++) {
+            final Batch batch = batches.get(i);
+            if(i < batches.size() - 1) {
+                assertThat(batch.descriptions.size(), is(BATCH_SIZE));
+            }
+            batchedDescriptions.addAll(batch.descriptions);
+        }
+        assertThat(batchedDescriptions, is(descriptions));
+        assertThat(excelFixture.getObjects().size(), is(descriptions.size()));
+    }
+
+    @Test
+    public void batches_are_handled_the_same_when_each_is_committed() throws Exception {
+
+        // given
+        final ExcelFixture excelFixture = new ExcelFixture(blob, RecordingBatchRowHandler.class);
+        excelFixture.setBatchSize(BATCH_SIZE);
+        excelFixture.setCommitPerBatch(true);
+
+        // when
+        scenarioExecution().install(excelFixture);
+
+        // then (the commits themselves aren't visible, the test running within a transaction of its own)
+        final List<String> batchedDescriptions = Lists.newArrayList();
+        final List<Batch> batches = RecordingBatchRowHandler.BATCHES;
+        assertThat(batches.size(), is((descriptions.size() + BATCH_SIZE - 1) / BATCH_SIZE));
+        for (final Batch batch : batches) {
+            batchedDescriptions.addAll(batch.descriptions);
+        }
+        assertThat(batchedDescriptions, is(descriptions));
+        assertThat(excelFixture.getObjects().size(), is(descriptions.size()));
+    }
+
+    @Test
+    public void batch_objects_can_be_discarded_once_each_batch_is_handled() throws Exception {
+
+        // given
+        final ExcelFixture excelFixture = new ExcelFixture(blob, RecordingBatchRowHandler.class);
+        excelFixture.setBatchSize(BATCH_SIZE);
+        excelFixture.setDiscardObjects(true);
+
+        // when
+        scenarioExecution().install(excelFixture);
+
+        // then
+        assertThat(RecordingBatchRowHandler.BATCHES.size(), is(greaterThan(1)));
+        assertThat(excelFixture.getObjects().isEmpty(), is(true));
+        assertThat(excelFixture.getObjectsByClass().isEmpty(), is(true));
+    }
+
+    @Test
+    public void row_and_batch_handlers_can_be_combined() throws Exception {
+
+        // given
+        final ExcelFixture excelFixture =
+                new ExcelFixture(blob, RecordingRowHandler.class, RecordingBatchRowHandler.class);
+        excelFixture.setBatchSize(BATCH_SIZE);
+
+        // when
+        scenarioExecution().install(excelFixture);
+
+        // then
+        assertThat(RecordingRowHandler.DESCRIPTIONS, is(descriptions));
+        assertThat(excelFixture.getObjectsByClass().get(RecordingRowHandler.class).size(), is(descriptions.size()));
+        assertThat(excelFixture.getObjectsByClass().get(RecordingBatchRowHandler.class).size(), is(descriptions.size()));
+        assertThat(excelFixture.getObjects().size(), is(2 * descriptions.size()));
+    }
+
+    @Test
+    public void fixtures_are_equal_if_their_spreadsheets_are() throws Exception {
+
+        // given
+        final Blob copy = new Blob(blob.getName(), blob.getMimeType(), blob.getBytes().clone());
+        final Blob other = excelService.toExcel(
+                toDoItems.allInstances().subList(0, 1), ExcelModuleDemoToDoItem.class, "Recording", "toDoItems.xlsx");
+
+        final ExcelFixture excelFixture = new ExcelFixture(blob, RecordingRowHandler.class);
+        final ExcelFixture sameFixture = new ExcelFixture(copy, RecordingRowHandler.class);
+        final ExcelFixture otherFixture = new ExcelFixture(other, RecordingRowHandler.class);
+
+        // then
+        assertThat(excelFixture.equals(sameFixture), is(true));
+        assertThat(excelFixture.hashCode(), is(sameFixture.hashCode()));
+        assertThat(excelFixture.equals(otherFixture), is(false));
+        assertThat(otherFixture.equals(excelFixture), is(false));
+    }
+
+    private static List<String> descriptionsOf(final List<ExcelModuleDemoToDoItem> items) {
+        final List<String> descriptions = Lists.newArrayList();
+        for (final ExcelModuleDemoToDoItem item : items) {
+            descriptions.add(item.getDescription());
+        }
+        return descriptions;
+    }
+
+    public static class RecordingRowHandler implements ExcelFixtureRowHandler {
+
+        static final List<String> DESCRIPTIONS = Lists.newArrayList();
+
+        private String description;
+
+        public String getDescription() {
+            return description;
+        }
+
+        public void setDescription(final String description) {
+            this.description = description;
+        }
+
+        @Override
+        public List<Object> handleRow(
+                final FixtureScript.ExecutionContext executionContext,
+                final ExcelFixture excelFixture,
+                final Object previousRow) {
+            if(DESCRIPTIONS.isEmpty()) {
+                assertThat(previousRow == null, is(true));
+            } else {
+                final String previousDescription = DESCRIPTIONS.get(DESCRIPTIONS.size() - 1);
+                assertThat(((RecordingRowHandler) previousRow).getDescription(), is(previousDescription));
+            }
+            DESCRIPTIONS.add(description);
+            return Collections.<Object>singletonList(this);
+        }
+    }
+
+    static class Batch {
+        private final List<String> descriptions = Lists.newArrayList();
+    }
+
+    public static class RecordingBatchRowHandler implements ExcelFixtureBatchRowHandler {
+
+        static final List<Batch> BATCHES = Lists.newArrayList();
+
+        private String description;
+
+        public String getDescription() {
+            return description;
+        }
+
+        public void setDescription(final String description) {
+            this.description = description;
+        }
+
+        @Override
+        public List<Object> handleRows(
+                final FixtureScript.ExecutionContext executionContext,
+                final ExcelFixture excelFixture,
+                final List<?> rows,
+                final Object previousRow) {
+            assertThat(rows.get(0) == this, is(true));
+            if(!BATCHES.isEmpty()) {
+                final List<String> previousDescriptions = BATCHES.get(BATCHES.size() - 1).descriptions;
+                final String previousDescription = previousDescriptions.get(previousDescriptions.size() - 1);
+                assertThat(((RecordingBatchRowHandler) previousRow).getDescription(), is(previousDescription));
+            }
+
+            final Batch batch = new Batch();
+            for (final Object row : rows) {
+                batch.descriptions.add(((RecordingBatchRowHandler) row).getDescription());
+            }
+            BATCHES.add(batch);
+            return Lists.<Object>newArrayList(rows);
+        }
+    }
+
+}
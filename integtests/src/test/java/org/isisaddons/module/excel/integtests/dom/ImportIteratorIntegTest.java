@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.integtests.dom;
+
+import java.io.File;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.apache.isis.applib.value.Blob;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.ImportIterator;
+import org.isisaddons.module.excel.dom.WorksheetContent;
+import org.isisaddons.module.excel.dom.WorksheetSpec;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItems;
+import org.isisaddons.module.excel.fixture.scripts.RecreateToDoItems;
+import org.isisaddons.module.excel.fixture.viewodels.ExcelModuleDemoToDoItemSummary;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Imports a sheet lazily, through an {@link ImportIterator}.
+ *
+ * <p>
+ *     The rows are also cached, as the cache directory shows whether the sheet was read in its entirety (the rows
+ *     being added to the cache) or abandoned part way (any partially written file being deleted).
+ * </p>
+ */
+public class ImportIteratorIntegTest extends ExcelModuleModuleIntegTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Inject
+    private ExcelService excelService;
+
+    @Inject
+    private ExcelModuleDemoToDoItems toDoItems;
+
+    private List<ExcelModuleDemoToDoItem> items;
+    private Blob blob;
+    private WorksheetSpec spec;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        scenarioExecution().install(new RecreateToDoItems());
+        items = toDoItems.allInstances();
+        blob = excelService.toExcel(
+                new WorksheetContent(items, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "toDoItems")),
+                "toDoItems.xlsx");
+        directory = temporaryFolder.newFolder();
+        spec = new WorksheetSpec(ExcelModuleDemoToDoItemSummary.class, "toDoItems").withStreaming()
+                .withRowCache(directory);
+    }
+
+    @Test
+    public void closing_early_abandons_the_rest_of_the_sheet() throws Exception {
+
+        // given
+        final ImportIterator<ExcelModuleDemoToDoItemSummary> iterator = excelService.fromExcelLazily(blob, spec);
+        assertThat(iterator.next().getDescription(), is(items.get(0).getDescription()));
+        assertThat(iterator.next().getDescription(), is(items.get(1).getDescription()));
+
+        // when
+        iterator.close();
+
+        // then
+        assertThat(iterator.hasNext(), is(false));
+        try {
+            iterator.next();
+            fail();
+        } catch (final NoSuchElementException ex) {
+            // expected
+        }
+        assertThat(numFilesEndingWith(".rows"), is(0));
+        assertThat(numFilesEndingWith(".tmp"), is(0));
+
+        // closing again has no effect
+        iterator.close();
+    }
+
+    @Test
+    public void exhausting_ends_the_iteration() throws Exception {
+
+        // given
+        int numImported = 0;
+        try (ImportIterator<ExcelModuleDemoToDoItemSummary> iterator = excelService.fromExcelLazily(blob, spec)) {
+
+            // when
+            while (iterator.hasNext()) {
+                assertThat(iterator.next().getDescription(), is(items.get(numImported++).getDescription()));
+            }
+
+            // then
+            assertThat(numImported, is(items.size()));
+            assertThat(iterator.hasNext(), is(false));
+            try {
+                iterator.next();
+                fail();
+            } catch (final NoSuchElementException ex) {
+                // expected
+            }
+            assertThat(numFilesEndingWith(".rows"), is(1));
+            assertThat(numFilesEndingWith(".tmp"), is(0));
+        }
+    }
+
+    private int numFilesEndingWith(final String suffix) {
+        int count = 0;
+        for (final File file : directory.listFiles()) {
+            if(file.getName().endsWith(suffix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2015 Jeroen van der Wal
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.integtests.dom;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.isis.applib.value.Blob;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.WorksheetContent;
+import org.isisaddons.module.excel.dom.WorksheetSpec;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItems;
+import org.isisaddons.module.excel.fixture.scripts.RecreateToDoItems;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Imports several sheets of a workbook in a single call.
+ */
+public class MultipleSheetImportIntegTest extends ExcelModuleModuleIntegTest {
+
+    private static final int NUM_SOME = 3;
+
+    @Before
+    public void setUpData() throws Exception {
+        scenarioExecution().install(new RecreateToDoItems());
+    }
+
+    @Inject
+    private ExcelService excelService;
+
+    @Inject
+    private ExcelModuleDemoToDoItems toDoItems;
+
+    @Test
+    public void imports_each_sheet_in_the_order_requested() throws Exception {
+        assertImports(false, false);
+    }
+
+    @Test
+    public void imports_each_sheet_in_the_order_requested_if_any_is_streamed() throws Exception {
+        assertImports(false, true);
+    }
+
+    @Test
+    public void imports_each_sheet_in_the_order_requested_if_all_are_streamed() throws Exception {
+        assertImports(true, true);
+    }
+
+    private void assertImports(final boolean streamSome, final boolean streamAll) throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final List<ExcelModuleDemoToDoItem> someItems = items.subList(items.size() - NUM_SOME, items.size());
+        final Blob blob = excelService.toExcel(Arrays.asList(
+                new WorksheetContent(items, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "all")),
+                new WorksheetContent(someItems, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "some"))),
+                "toDoItems.xlsx");
+
+        // when (the sheets in the opposite order to that of the workbook)
+        final List<List<?>> imported = excelService.fromExcel(blob, Arrays.asList(
+                spec("some", streamSome),
+                spec("all", streamAll)));
+
+        // then
+        assertThat(imported.size(), is(2));
+        assertDescriptions(imported.get(0), someItems);
+        assertDescriptions(imported.get(1), items);
+    }
+
+    private static WorksheetSpec spec(final String sheetName, final boolean streaming) {
+        final WorksheetSpec spec = new WorksheetSpec(ExcelModuleDemoToDoItem.class, sheetName);
+        return streaming ? spec.withStreaming() : spec;
+    }
+
+    private static void assertDescriptions(final List<?> imported, final List<ExcelModuleDemoToDoItem> expected) {
+        assertThat(imported.size(), is(expected.size()));
+        for (int i = 0; i < imported.size(); i++) {
+            final ExcelModuleDemoToDoItem item = (ExcelModuleDemoToDoItem) imported.get(i);
+            assertThat(item.getDescription(), is(expected.get(i).getDescription()));
+        }
+    }
+
+}
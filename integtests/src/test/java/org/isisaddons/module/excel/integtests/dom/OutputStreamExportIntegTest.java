@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2015 Jeroen van der Wal
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.integtests.dom;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.isis.applib.value.Blob;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.WorksheetContent;
+import org.isisaddons.module.excel.dom.WorksheetSpec;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItems;
+import org.isisaddons.module.excel.fixture.scripts.RecreateToDoItems;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Exports sheets directly to an {@link java.io.OutputStream}, rather than to a {@link Blob}.
+ */
+public class OutputStreamExportIntegTest extends ExcelModuleModuleIntegTest {
+
+    @Before
+    public void setUpData() throws Exception {
+        scenarioExecution().install(new RecreateToDoItems());
+    }
+
+    @Inject
+    private ExcelService excelService;
+
+    @Inject
+    private ExcelModuleDemoToDoItems toDoItems;
+
+    @Test
+    public void writes_sheet_to_stream_and_leaves_it_open() throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final RecordingOutputStream outputStream = new RecordingOutputStream();
+
+        // when
+        excelService.toExcel(
+                new WorksheetContent(items, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "toDoItems")),
+                outputStream);
+
+        // then
+        assertThat(outputStream.closed, is(false));
+        final List<ExcelModuleDemoToDoItem> imported =
+                excelService.fromExcel(toBlob(outputStream), ExcelModuleDemoToDoItem.class, "toDoItems");
+        assertThat(imported.size(), is(items.size()));
+        for (int i = 0; i < imported.size(); i++) {
+            assertThat(imported.get(i).getDescription(), is(items.get(i).getDescription()));
+        }
+    }
+
+    @Test
+    public void writes_multiple_sheets_to_stream() throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final List<ExcelModuleDemoToDoItem> someItems = items.subList(0, 3);
+        final RecordingOutputStream outputStream = new RecordingOutputStream();
+
+        // when
+        excelService.toExcel(Arrays.asList(
+                new WorksheetContent(items, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "all")),
+                new WorksheetContent(someItems, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "some"))),
+                outputStream);
+
+        // then
+        assertThat(outputStream.closed, is(false));
+        final Blob blob = toBlob(outputStream);
+        assertThat(excelService.fromExcel(blob, ExcelModuleDemoToDoItem.class, "all").size(), is(items.size()));
+        assertThat(excelService.fromExcel(blob, ExcelModuleDemoToDoItem.class, "some").size(), is(someItems.size()));
+    }
+
+    private static Blob toBlob(final ByteArrayOutputStream outputStream) {
+        return new Blob("toDoItems.xlsx", ExcelService.XSLX_MIME_TYPE, outputStream.toByteArray());
+    }
+
+    private static class RecordingOutputStream extends ByteArrayOutputStream {
+
+        private boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+}
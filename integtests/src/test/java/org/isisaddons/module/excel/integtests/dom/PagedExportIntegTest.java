@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2015 Jeroen van der Wal
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.integtests.dom;
+
+import java.util.List;
+
+import javax.inject.Inject;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.isis.applib.value.Blob;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.WorksheetContent;
+import org.isisaddons.module.excel.dom.WorksheetSpec;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItems;
+import org.isisaddons.module.excel.fixture.scripts.RecreateToDoItems;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Exports sheets whose domain objects are supplied a {@link WorksheetContent.PageSupplier page} at a time.
+ */
+public class PagedExportIntegTest extends ExcelModuleModuleIntegTest {
+
+    private static final int PAGE_SIZE = 5;
+
+    @Before
+    public void setUpData() throws Exception {
+        scenarioExecution().install(new RecreateToDoItems());
+    }
+
+    @Inject
+    private ExcelService excelService;
+
+    @Inject
+    private ExcelModuleDemoToDoItems toDoItems;
+
+    @Test
+    public void exports_every_item_once_and_in_order() throws Exception {
+
+        // given
+        final List<String> expected = Lists.newArrayList();
+        for (final ExcelModuleDemoToDoItem item : toDoItems.allInstances(0, Integer.MAX_VALUE)) {
+            expected.add(item.getDescription());
+        }
+        assertThat(expected.size(), is(greaterThan(PAGE_SIZE)));
+        final RecordingPageSupplier pageSupplier = new RecordingPageSupplier();
+
+        // when
+        final Blob blob = excelService.toExcel(
+                new WorksheetContent(pageSupplier, PAGE_SIZE,
+                        new WorksheetSpec(ExcelModuleDemoToDoItem.class, "toDoItems")),
+                "toDoItems.xlsx");
+
+        // then
+        assertThat(pageSupplier.starts, is((List<Integer>) Lists.newArrayList(0, 5, 10)));
+        final List<ExcelModuleDemoToDoItem> imported =
+                excelService.fromExcel(blob, ExcelModuleDemoToDoItem.class, "toDoItems");
+        final List<String> actual = Lists.newArrayList();
+        for (final ExcelModuleDemoToDoItem item : imported) {
+            actual.add(item.getDescription());
+        }
+        assertThat(actual, is(expected));
+    }
+
+    @Test
+    public void pages_are_not_requested_until_iterated() throws Exception {
+
+        // given
+        final RecordingPageSupplier pageSupplier = new RecordingPageSupplier();
+
+        // when
+        final WorksheetContent content = new WorksheetContent(pageSupplier, PAGE_SIZE,
+                new WorksheetSpec(ExcelModuleDemoToDoItem.class, "toDoItems"));
+
+        // then
+        assertThat(pageSupplier.starts.isEmpty(), is(true));
+
+        // and when
+        content.getDomainObjectsIterable().iterator().next();
+
+        // then
+        assertThat(pageSupplier.starts, is((List<Integer>) Lists.newArrayList(0)));
+    }
+
+    private class RecordingPageSupplier implements WorksheetContent.PageSupplier<ExcelModuleDemoToDoItem> {
+
+        private final List<Integer> starts = Lists.newArrayList();
+
+        @Override
+        public List<ExcelModuleDemoToDoItem> getPage(final int start, final int count) {
+            starts.add(start);
+            return toDoItems.allInstances(start, count);
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.integtests.dom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import com.google.common.collect.Lists;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.isis.applib.value.Blob;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.ImportSummary;
+import org.isisaddons.module.excel.dom.RowConsumer;
+import org.isisaddons.module.excel.dom.WorksheetContent;
+import org.isisaddons.module.excel.dom.WorksheetSpec;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItems;
+import org.isisaddons.module.excel.fixture.scripts.RecreateToDoItems;
+import org.isisaddons.module.excel.fixture.viewodels.ExcelModuleDemoToDoItemSummary;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Imports sheets handing the domain objects to a {@link RowConsumer} in batches.
+ */
+public class RowConsumerIntegTest extends ExcelModuleModuleIntegTest {
+
+    private static final int BATCH_SIZE = 3;
+    private static final int NUM_BLANK_ROWS = 2;
+
+    @Before
+    public void setUpData() throws Exception {
+        scenarioExecution().install(new RecreateToDoItems());
+    }
+
+    @Inject
+    private ExcelService excelService;
+
+    @Inject
+    private ExcelModuleDemoToDoItems toDoItems;
+
+    @Test
+    public void hands_over_the_rows_in_batches() throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        assertThat(items.size(), is(greaterThan(BATCH_SIZE)));
+        final Blob blob = withBlankRows(excelService.toExcel(
+                new WorksheetContent(items, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "toDoItems")),
+                "toDoItems.xlsx"));
+        final RecordingRowConsumer consumer = new RecordingRowConsumer();
+
+        // when
+        final ImportSummary summary = excelService.fromExcel(
+                blob, new WorksheetSpec(ExcelModuleDemoToDoItemSummary.class, "toDoItems"), consumer, BATCH_SIZE);
+
+        // then
+        assertThat(summary.getSheetName(), is("toDoItems"));
+        assertThat(summary.getNumRows(), is(items.size() + NUM_BLANK_ROWS));
+        assertThat(summary.getNumImported(), is(items.size()));
+        assertThat(summary.getNumBatches(), is((items.size() + BATCH_SIZE - 1) / BATCH_SIZE));
+        consumer.assertBatches(items);
+    }
+
+    @Test
+    public void hands_over_the_rows_of_each_sheet_to_its_own_consumer() throws Exception {
+
+        // given (sheets of different items, as a view model recreated from the same memento twice in a session is not
+        // populated the second time)
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final List<ExcelModuleDemoToDoItem> someItems = items.subList(0, BATCH_SIZE + 1);
+        final List<ExcelModuleDemoToDoItem> otherItems = items.subList(BATCH_SIZE + 1, items.size());
+        final Blob blob = excelService.toExcel(Arrays.asList(
+                new WorksheetContent(otherItems, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "other")),
+                new WorksheetContent(someItems, new WorksheetSpec(ExcelModuleDemoToDoItem.class, "some"))),
+                "toDoItems.xlsx");
+        final RecordingRowConsumer otherConsumer = new RecordingRowConsumer();
+        final RecordingRowConsumer someConsumer = new RecordingRowConsumer();
+
+        // when
+        final List<ImportSummary> summaries = excelService.fromExcel(
+                blob,
+                Arrays.asList(
+                        new WorksheetSpec(ExcelModuleDemoToDoItemSummary.class, "other"),
+                        new WorksheetSpec(ExcelModuleDemoToDoItemSummary.class, "some")),
+                Arrays.asList(otherConsumer, someConsumer),
+                BATCH_SIZE);
+
+        // then
+        assertThat(summaries.size(), is(2));
+        assertThat(summaries.get(0).getSheetName(), is("other"));
+        assertThat(summaries.get(0).getNumImported(), is(otherItems.size()));
+        assertThat(summaries.get(1).getSheetName(), is("some"));
+        assertThat(summaries.get(1).getNumImported(), is(someItems.size()));
+        assertThat(summaries.get(1).getNumBatches(), is(2));
+        otherConsumer.assertBatches(otherItems);
+        someConsumer.assertBatches(someItems);
+    }
+
+    /**
+     * Appends rows that exist, but whose cells are all blank.
+     */
+    private static Blob withBlankRows(final Blob blob) throws Exception {
+        final XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(blob.getBytes()));
+        final Sheet sheet = workbook.getSheetAt(0);
+        for (int i = 0; i < NUM_BLANK_ROWS; i++) {
+            sheet.createRow(sheet.getLastRowNum() + 1).createCell(0);
+        }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        workbook.write(baos);
+        return new Blob(blob.getName(), ExcelService.XSLX_MIME_TYPE, baos.toByteArray());
+    }
+
+    private static class RecordingRowConsumer implements RowConsumer<ExcelModuleDemoToDoItemSummary> {
+
+        private final List<List<ExcelModuleDemoToDoItemSummary>> batches = Lists.newArrayList();
+
+        @Override
+        public void consume(final List<ExcelModuleDemoToDoItemSummary> batch) {
+            batches.add(Lists.newArrayList(batch));
+        }
+
+        /**
+         * Full batches (save perhaps the last) of the items, in order.
+         */
+        void assertBatches(final List<ExcelModuleDemoToDoItem> items) {
+            final List<ExcelModuleDemoToDoItemSummary> imported = Lists.newArrayList();
+            for (int i = 0; i < batches.size(); i++) {
+                final List<ExcelModuleDemoToDoItemSummary> batch = batches.get(i);
+                if(i < batches.size() - 1) {
+                    assertThat(batch.size(), is(BATCH_SIZE));
+                } else {
+                    assertThat(batch.size() > 0 && batch.size() <= BATCH_SIZE, is(true));
+                }
+                imported.addAll(batch);
+            }
+            assertThat(imported.size(), is(items.size()));
+            for (int i = 0; i < imported.size(); i++) {
+                assertThat(imported.get(i).getDescription(), is(items.get(i).getDescription()));
+            }
+        }
+    }
+
+}
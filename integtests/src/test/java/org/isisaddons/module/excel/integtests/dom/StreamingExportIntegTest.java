@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2015 Jeroen van der Wal
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.integtests.dom;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.isis.applib.value.Blob;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.WorksheetContent;
+import org.isisaddons.module.excel.dom.WorksheetSpec;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItem;
+import org.isisaddons.module.excel.fixture.dom.ExcelModuleDemoToDoItems;
+import org.isisaddons.module.excel.fixture.scripts.RecreateToDoItems;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Exports sheets using {@link WorksheetSpec#withStreaming(int) streaming}, with a row access window smaller than
+ * the number of rows, so that rows are flushed to disk while the sheet is still being written.
+ */
+public class StreamingExportIntegTest extends ExcelModuleModuleIntegTest {
+
+    private static final int ROW_ACCESS_WINDOW_SIZE = 5;
+
+    @Before
+    public void setUpData() throws Exception {
+        scenarioExecution().install(new RecreateToDoItems());
+    }
+
+    @Inject
+    private ExcelService excelService;
+
+    @Inject
+    private ExcelModuleDemoToDoItems toDoItems;
+
+    @Test
+    public void streamed_export_can_be_imported_again() throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        assertThat(items.size(), is(greaterThan(ROW_ACCESS_WINDOW_SIZE)));
+
+        // when
+        final Blob blob = excelService.toExcel(
+                new WorksheetContent(items,
+                        new WorksheetSpec(ExcelModuleDemoToDoItem.class, "toDoItems").withStreaming(ROW_ACCESS_WINDOW_SIZE)),
+                "toDoItems.xlsx");
+
+        // then
+        final XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(blob.getBytes()));
+        assertThat(workbook.getSheet("toDoItems").getLastRowNum(), is(items.size()));
+
+        // and when
+        final List<ExcelModuleDemoToDoItem> imported =
+                excelService.fromExcel(blob, ExcelModuleDemoToDoItem.class, "toDoItems");
+
+        // then
+        assertThat(imported.size(), is(items.size()));
+        for (int i = 0; i < imported.size(); i++) {
+            assertThat(imported.get(i).getDescription(), is(items.get(i).getDescription()));
+        }
+    }
+
+    @Test
+    public void streamed_and_non_streamed_sheets_can_be_mixed() throws Exception {
+
+        // given
+        final List<ExcelModuleDemoToDoItem> items = toDoItems.allInstances();
+        final List<ExcelModuleDemoToDoItem> someItems = items.subList(0, ROW_ACCESS_WINDOW_SIZE + 1);
+
+        // when
+        final Blob blob = excelService.toExcel(Arrays.asList(
+                new WorksheetContent(items,
+                        new WorksheetSpec(ExcelModuleDemoToDoItem.class, "streamed").withStreaming(ROW_ACCESS_WINDOW_SIZE)),
+                new WorksheetContent(someItems,
+                        new WorksheetSpec(ExcelModuleDemoToDoItem.class, "inMemory"))),
+                "toDoItems.xlsx");
+
+        // then
+        final List<ExcelModuleDemoToDoItem> streamed =
+                excelService.fromExcel(blob, ExcelModuleDemoToDoItem.class, "streamed");
+        final List<ExcelModuleDemoToDoItem> inMemory =
+                excelService.fromExcel(blob, ExcelModuleDemoToDoItem.class, "inMemory");
+        assertThat(streamed.size(), is(items.size()));
+        assertThat(inMemory.size(), is(someItems.size()));
+        assertThat(inMemory.get(0).getDescription(), is(items.get(0).getDescription()));
+    }
+
+}
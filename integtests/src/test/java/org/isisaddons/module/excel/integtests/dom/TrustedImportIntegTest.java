@@ -0,0 +1,160 @@
+/*
+ *  Copyright 2015 Jeroen van der Wal
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.integtests.dom;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import com.google.common.collect.Maps;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.apache.isis.applib.value.Blob;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.dom.WorksheetContent;
+import org.isisaddons.module.excel.dom.WorksheetSpec;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+import org.isisaddons.module.excel.integtests.PlainSetters;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Imports with {@link WorksheetSpec#withTrustedImport()}, checking which properties are set by calling their setters
+ * directly and which are still set through the metamodel.
+ */
+public class TrustedImportIntegTest extends ExcelModuleModuleIntegTest {
+
+    @Inject
+    private ExcelService excelService;
+
+    @Rule
+    public PlainSetters plainSetters = new PlainSetters();
+
+    private Blob blob;
+
+    @Before
+    public void setUp() throws Exception {
+        plainSetters.install(Recorder.class, "name");
+
+        final Recorder recorder = new Recorder();
+        recorder.setName("Fred");
+        recorder.setNotes("Some notes");
+        recorder.setComment("A comment");
+        blob = excelService.toExcel(
+                new WorksheetContent(Arrays.asList(recorder), new WorksheetSpec(Recorder.class, "recorders")),
+                "recorders.xlsx");
+
+        Recorder.VIA_METAMODEL.clear();
+    }
+
+    @Test
+    public void plain_properties_are_set_directly_and_others_through_the_metamodel() throws Exception {
+
+        // when
+        final List<Recorder> imported =
+                excelService.fromExcel(blob, new WorksheetSpec(Recorder.class, "recorders").withTrustedImport());
+
+        // then
+        assertImported(imported);
+        assertThat(Recorder.VIA_METAMODEL.get("name"), is(false));
+        // a modifyXxx() supporting method
+        assertThat(Recorder.VIA_METAMODEL.get("notes"), is(true));
+        // the default domain event
+        assertThat(Recorder.VIA_METAMODEL.get("comment"), is(true));
+    }
+
+    @Test
+    public void all_properties_are_set_through_the_metamodel_unless_trusted() throws Exception {
+
+        // when
+        final List<Recorder> imported = excelService.fromExcel(blob, new WorksheetSpec(Recorder.class, "recorders"));
+
+        // then
+        assertImported(imported);
+        assertThat(Recorder.VIA_METAMODEL.get("name"), is(true));
+        assertThat(Recorder.VIA_METAMODEL.get("notes"), is(true));
+        assertThat(Recorder.VIA_METAMODEL.get("comment"), is(true));
+    }
+
+    private static void assertImported(final List<Recorder> imported) {
+        assertThat(imported.size(), is(1));
+        assertThat(imported.get(0).getName(), is("Fred"));
+        assertThat(imported.get(0).getNotes(), is("Some notes"));
+        assertThat(imported.get(0).getComment(), is("A comment"));
+    }
+
+    public static class Recorder {
+
+        /**
+         * Whether each property was last set from within the metamodel, by property id.
+         */
+        static final Map<String, Boolean> VIA_METAMODEL = Maps.newHashMap();
+
+        private static void record(final String propertyId) {
+            boolean viaMetamodel = false;
+            for (final StackTraceElement element : new Throwable().getStackTrace()) {
+                viaMetamodel |= element.getClassName().startsWith("org.apache.isis.core.metamodel.");
+            }
+            VIA_METAMODEL.put(propertyId, viaMetamodel);
+        }
+
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(final String name) {
+            record("name");
+            this.name = name;
+        }
+
+        private String notes;
+
+        public String getNotes() {
+            return notes;
+        }
+
+        public void setNotes(final String notes) {
+            this.notes = notes;
+        }
+
+        public void modifyNotes(final String notes) {
+            record("notes");
+            setNotes(notes);
+        }
+
+        private String comment;
+
+        public String getComment() {
+            return comment;
+        }
+
+        public void setComment(final String comment) {
+            record("comment");
+            this.comment = comment;
+        }
+    }
+
+}
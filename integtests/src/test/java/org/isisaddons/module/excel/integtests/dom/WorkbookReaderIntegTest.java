@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2016 Dan Haywood
+ *
+ *  Licensed under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+package org.isisaddons.module.excel.integtests.dom;
+
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.isis.applib.value.Blob;
+
+import org.isisaddons.module.excel.dom.ExcelService;
+import org.isisaddons.module.excel.fixture.app.ExcelModuleDemoToDoItemBulkUpdateLineItem;
+import org.isisaddons.module.excel.fixture.app.ExcelModuleDemoToDoItemBulkUpdateManager;
+import org.isisaddons.module.excel.fixture.app.ExcelModuleDemoToDoItemBulkUpdateMenu;
+import org.isisaddons.module.excel.fixture.scripts.RecreateToDoItems;
+import org.isisaddons.module.excel.integtests.ExcelModuleModuleIntegTest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Imports the same .xlsx through both the (in-memory) usermodel reader and the streaming reader.
+ */
+public class WorkbookReaderIntegTest extends ExcelModuleModuleIntegTest {
+
+    @Before
+    public void setUpData() throws Exception {
+        scenarioExecution().install(new RecreateToDoItems());
+    }
+
+    @Inject
+    private ExcelService excelService;
+
+    @Inject
+    private ExcelModuleDemoToDoItemBulkUpdateMenu exportImportService;
+
+    @Test
+    public void usermodel_and_streaming_readers_agree() throws Exception {
+
+        // given
+        final ExcelModuleDemoToDoItemBulkUpdateManager bulkUpdateManager = exportImportService.bulkUpdateManager();
+        final Blob blob = bulkUpdateManager.export();
+
+        // when
+        final List<ExcelModuleDemoToDoItemBulkUpdateLineItem> read =
+                excelService.fromExcel(blob, ExcelModuleDemoToDoItemBulkUpdateManager.WORKSHEET_SPEC);
+        final List<ExcelModuleDemoToDoItemBulkUpdateLineItem> streamed =
+                excelService.fromExcel(blob, ExcelModuleDemoToDoItemBulkUpdateManager.WORKSHEET_SPEC.withStreaming());
+
+        // then
+        assertThat(read.size(), is(greaterThan(0)));
+        assertThat(streamed.size(), is(read.size()));
+
+        boolean anyBlankNotes = false;
+        for (int i = 0; i < read.size(); i++) {
+            final ExcelModuleDemoToDoItemBulkUpdateLineItem expected = read.get(i);
+            final ExcelModuleDemoToDoItemBulkUpdateLineItem actual = streamed.get(i);
+
+            // comment bookmarks
+            assertThat(expected.getToDoItem(), is(notNullValue()));
+            assertThat(actual.getToDoItem(), is(expected.getToDoItem()));
+
+            // strings and enums
+            assertThat(actual.getDescription(), is(expected.getDescription()));
+            assertThat(actual.getCategory(), is(expected.getCategory()));
+            assertThat(actual.getSubcategory(), is(expected.getSubcategory()));
+            assertThat(actual.getOwnedBy(), is(expected.getOwnedBy()));
+
+            // dates, numbers and booleans
+            assertThat(actual.getDueBy(), is(expected.getDueBy()));
+            assertThat(actual.getCost(), is(expected.getCost()));
+            assertThat(actual.isComplete(), is(expected.isComplete()));
+
+            // blanks
+            assertThat(actual.getNotes(), is(expected.getNotes()));
+            if(expected.getNotes() == null) {
+                assertThat(actual.getNotes(), is(nullValue()));
+                anyBlankNotes = true;
+            }
+        }
+        assertThat(anyBlankNotes, is(true));
+    }
+
+}